@@ -3,6 +3,11 @@ plugins {
     id("java")
 }
 
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
 group = "gay.mona"
 version = "1.0.0"
 
@@ -16,6 +21,7 @@ neoForge {
     }
 
     accessTransformers.from("src/main/accesstransformer.cfg")
+    addModdingDependenciesTo(jmh)
 
     runs {
         create("data") {
@@ -31,11 +37,35 @@ neoForge {
 }
 
 dependencies {
+    implementation("org.apache.commons:commons-compress:1.27.1")
+
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+// Run with ./gradlew jmh -PassetsDir=<assets folder> -PassetIndex=<asset index>, extra JMH arguments go into -PjmhArgs
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the ModelConverter benchmarks with the GC profiler"
+    mainClass = "org.openjdk.jmh.Main"
+    classpath = jmh.runtimeClasspath
+
+    val assetsDir = providers.gradleProperty("assetsDir")
+    val assetIndex = providers.gradleProperty("assetIndex")
+    val jmhArgs = providers.gradleProperty("jmhArgs").orElse("")
+    // forked benchmark JVMs inherit the arguments of this JVM
+    jvmArgumentProviders.add(CommandLineArgumentProvider {
+        listOf("-DmodelExporter.assetsDir=${assetsDir.get()}", "-DmodelExporter.assetIndex=${assetIndex.get()}")
+    })
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf("-prof", "gc", "-rf", "json", "-rff", "build/jmh-result.json") + jmhArgs.get().split(" ").filter { it.isNotBlank() }
+    })
+}
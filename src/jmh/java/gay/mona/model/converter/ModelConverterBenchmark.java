@@ -0,0 +1,299 @@
+package gay.mona.model.converter;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import net.minecraft.SharedConstants;
+import net.minecraft.client.ClientBootstrap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.IntTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.block.state.properties.BlockStateProperties;
+import net.minecraft.world.level.block.state.properties.WallSide;
+import net.minecraft.world.level.levelgen.structure.templatesystem.StructureTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the hot paths of {@link ModelConverter} over synthetic structures.
+ * <p>
+ * Needs the {@code modelExporter.assetsDir} and {@code modelExporter.assetIndex} system properties, the
+ * {@code jmh} Gradle task passes them from the {@code assetsDir} and {@code assetIndex} project properties.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModelConverterBenchmark {
+
+    @Param({"SOLID_CUBE", "SPARSE_FRAME", "FENCES_AND_WALLS", "ROTATED_STAIRS", "UV_LOCK"})
+    public Shape shape;
+
+    @Param({"16"})
+    public int size;
+
+    private StructureTemplate template;
+    private VoxelGrid grid;
+    private List<PlacedElement> placedElements;
+    private JsonObject model;
+    private List<ResourceLocation> modelLocations;
+    private List<ResourceLocation> textures;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        bootstrap();
+        template = shape.create(size);
+        var sizeVector = template.getSize();
+        grid = VoxelGrid.of(template.palettes.getFirst().blocks(), sizeVector.getX(), sizeVector.getY(), sizeVector.getZ());
+        placedElements = new ArrayList<>();
+        ModelConverter.placeElements(grid, new ConversionStats(), (x, y, z, variant, element, faceMask) -> placedElements.add(
+                new PlacedElement(new BlockPos(x, y, z), PlacedElement.SINGLE_BLOCK, variant, element, faceMask)));
+        model = ModelConverter.convertBlocksToJsonModel(template);
+
+        modelLocations = placedElements.stream().map(placed -> placed.variant().modelLocation()).distinct().toList();
+        textures = placedElements.stream()
+                .flatMap(placed -> placed.element().faces().stream())
+                .map(BakedVariant.Face::texture)
+                .toList();
+    }
+
+    private static synchronized void bootstrap() {
+        SharedConstants.tryDetectVersion();
+        Main.assetsDirectory = Path.of(System.getProperty("modelExporter.assetsDir"));
+        Main.assetVersion = Integer.getInteger("modelExporter.assetIndex");
+        Bootstrap.bootStrap();
+        ClientBootstrap.bootstrap();
+        ModelConverter.bootstrap();
+    }
+
+    /**
+     * The whole conversion, streamed into a writer that discards everything.
+     */
+    @Benchmark
+    public void convert(Blackhole blackhole) throws IOException {
+        var stats = new ConversionStats();
+        ModelConverter.convert(template, ConverterOptions.DEFAULT, stats, new JsonWriter(Writer.nullWriter()));
+        blackhole.consume(stats);
+    }
+
+    /**
+     * The whole conversion into a Gson tree.
+     */
+    @Benchmark
+    public JsonObject convertBlocksToJsonModel() {
+        return ModelConverter.convertBlocksToJsonModel(template);
+    }
+
+    /**
+     * Building the voxel grid, including the neighbour occlusion masks.
+     */
+    @Benchmark
+    public VoxelGrid buildGrid() {
+        var sizeVector = template.getSize();
+        return VoxelGrid.of(template.palettes.getFirst().blocks(), sizeVector.getX(), sizeVector.getY(), sizeVector.getZ());
+    }
+
+    /**
+     * Variant selection, culling and placement of the baked elements. Run with {@code -prof gc} to see the
+     * allocation per structure, which should not grow with the number of blocks.
+     */
+    @Benchmark
+    public void placeElements(Blackhole blackhole) throws IOException {
+        ModelConverter.placeElements(grid, new ConversionStats(), (x, y, z, variant, element, faceMask) -> {
+            blackhole.consume(element);
+            blackhole.consume(faceMask);
+        });
+    }
+
+    /**
+     * Resolving the models of every variant in the structure through the resolved model cache.
+     */
+    @Benchmark
+    public void resolve(Blackhole blackhole) {
+        for (var modelLocation : modelLocations) {
+            blackhole.consume(ModelConverter.resolve(modelLocation));
+        }
+    }
+
+    /**
+     * Assigning texture keys for every face in the structure.
+     */
+    @Benchmark
+    public String getOrCreateKey() {
+        var writer = new ModelWriter(new JsonWriter(Writer.nullWriter()), ModelWriter.FULL_PRECISION, 1, ModelConverter.ROTATION_PIVOT);
+        String key = null;
+        for (var texture : textures) {
+            key = writer.getOrCreateKey(texture);
+        }
+        return key;
+    }
+
+    /**
+     * Writing already placed elements as JSON.
+     */
+    @Benchmark
+    public void writeModel() throws IOException {
+        var writer = new ModelWriter(new JsonWriter(Writer.nullWriter()), ModelWriter.FULL_PRECISION, 1f / size, ModelConverter.ROTATION_PIVOT);
+        writer.begin();
+        for (var placed : placedElements) {
+            writer.write(placed);
+        }
+        writer.end();
+    }
+
+    /**
+     * Serializing a Gson tree, the output path before models were streamed.
+     */
+    @Benchmark
+    public String serializeTree() {
+        return model.toString();
+    }
+
+    public enum Shape {
+        SOLID_CUBE {
+            @Override
+            void fill(int size, Map<BlockState, List<int[]>> blocks) {
+                for (int x = 0; x < size; x++) {
+                    for (int y = 0; y < size; y++) {
+                        for (int z = 0; z < size; z++) {
+                            add(blocks, Blocks.STONE.defaultBlockState(), x, y, z);
+                        }
+                    }
+                }
+            }
+        },
+        SPARSE_FRAME {
+            @Override
+            void fill(int size, Map<BlockState, List<int[]>> blocks) {
+                int max = size * 2 - 1;
+                for (int x = 0; x <= max; x++) {
+                    for (int y = 0; y <= max; y++) {
+                        for (int z = 0; z <= max; z++) {
+                            int edges = (x == 0 || x == max ? 1 : 0) + (y == 0 || y == max ? 1 : 0) + (z == 0 || z == max ? 1 : 0);
+                            if (edges >= 2) {
+                                add(blocks, Blocks.OAK_PLANKS.defaultBlockState(), x, y, z);
+                            }
+                        }
+                    }
+                }
+            }
+        },
+        FENCES_AND_WALLS {
+            @Override
+            void fill(int size, Map<BlockState, List<int[]>> blocks) {
+                var fence = Blocks.OAK_FENCE.defaultBlockState()
+                        .setValue(BlockStateProperties.EAST, true)
+                        .setValue(BlockStateProperties.WEST, true);
+                var wall = Blocks.COBBLESTONE_WALL.defaultBlockState()
+                        .setValue(BlockStateProperties.NORTH_WALL, WallSide.LOW)
+                        .setValue(BlockStateProperties.SOUTH_WALL, WallSide.LOW)
+                        .setValue(BlockStateProperties.UP, false);
+                for (int x = 0; x < size; x++) {
+                    for (int y = 0; y < size; y++) {
+                        for (int z = 0; z < size; z++) {
+                            add(blocks, (y & 1) == 0 ? fence : wall, x, y, z);
+                        }
+                    }
+                }
+            }
+        },
+        ROTATED_STAIRS {
+            @Override
+            void fill(int size, Map<BlockState, List<int[]>> blocks) {
+                fillWithStates(size, blocks, Blocks.OAK_STAIRS.getStateDefinition().getPossibleStates());
+            }
+        },
+        UV_LOCK {
+            @Override
+            void fill(int size, Map<BlockState, List<int[]>> blocks) {
+                fillWithStates(size, blocks, Blocks.OAK_FENCE_GATE.getStateDefinition().getPossibleStates());
+            }
+        };
+
+        abstract void fill(int size, Map<BlockState, List<int[]>> blocks);
+
+        StructureTemplate create(int size) {
+            var blocks = new HashMap<BlockState, List<int[]>>();
+            fill(size, blocks);
+
+            int maxX = 0;
+            int maxY = 0;
+            int maxZ = 0;
+            var palette = new ListTag();
+            var blockList = new ListTag();
+            for (var entry : blocks.entrySet()) {
+                int stateIndex = palette.size();
+                palette.add(NbtUtils.writeBlockState(entry.getKey()));
+                for (var pos : entry.getValue()) {
+                    maxX = Math.max(maxX, pos[0]);
+                    maxY = Math.max(maxY, pos[1]);
+                    maxZ = Math.max(maxZ, pos[2]);
+                    var block = new CompoundTag();
+                    block.put("pos", intList(pos[0], pos[1], pos[2]));
+                    block.putInt("state", stateIndex);
+                    blockList.add(block);
+                }
+            }
+
+            var tag = new CompoundTag();
+            tag.put("size", intList(maxX + 1, maxY + 1, maxZ + 1));
+            tag.put("palette", palette);
+            tag.put("blocks", blockList);
+            tag.put("entities", new ListTag());
+            var template = new StructureTemplate();
+            template.load(BuiltInRegistries.BLOCK, tag);
+            return template;
+        }
+
+        private static void fillWithStates(int size, Map<BlockState, List<int[]>> blocks, List<BlockState> states) {
+            int index = 0;
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    for (int z = 0; z < size; z++) {
+                        add(blocks, states.get(index++ % states.size()), x, y, z);
+                    }
+                }
+            }
+        }
+
+        private static void add(Map<BlockState, List<int[]>> blocks, BlockState state, int x, int y, int z) {
+            blocks.computeIfAbsent(state, key -> new ArrayList<>()).add(new int[]{x, y, z});
+        }
+
+        private static ListTag intList(int x, int y, int z) {
+            var list = new ListTag();
+            list.add(IntTag.valueOf(x));
+            list.add(IntTag.valueOf(y));
+            list.add(IntTag.valueOf(z));
+            return list;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package gay.mona.model.converter;
+
+import net.minecraft.client.renderer.block.model.BlockElementRotation;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3fc;
+
+import java.util.List;
+
+/**
+ * The geometry of a single blockstate variant in block local coordinates, with the variant rotation and uv lock
+ * already applied. Placing it only requires a translation and scale per block.
+ *
+ * @param modelLocation the model of the variant, used to name the emitted elements
+ * @param elements      the elements of the model in model order, elements without faces are kept
+ */
+record BakedVariant(ResourceLocation modelLocation, List<Element> elements) {
+
+    /**
+     * @param from     the rotated lower corner, in 0..16 block space
+     * @param to       the rotated upper corner, in 0..16 block space
+     * @param rotation the element rotation or {@code null} if the element is not rotated
+     * @param faces    the faces in model order
+     */
+    record Element(Vector3fc from, Vector3fc to, @Nullable BlockElementRotation rotation, List<Face> faces) {
+    }
+
+    /**
+     * @param direction the direction of the face after the variant rotation
+     * @param cullFace  the rotated cull direction or {@code null} if the face is never culled
+     * @param uv        min u, min v, max u, max v
+     * @param rotation  the uv rotation in degrees
+     * @param texture   the resolved texture or {@code null} for a missing texture
+     */
+    record Face(
+            Direction direction,
+            @Nullable Direction cullFace,
+            float[] uv,
+            int rotation,
+            @Nullable ResourceLocation texture
+    ) {
+    }
+}
@@ -0,0 +1,376 @@
+package gay.mona.model.converter;
+
+import com.google.common.hash.Hashing;
+import net.minecraft.SharedConstants;
+import net.minecraft.client.renderer.block.model.BlockElementRotation;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.random.WeightedList;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3f;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * A binary snapshot of the baked geometry of every blockstate, so later runs can skip loading the vanilla models.
+ * <p>
+ * The file starts with a {@link Key} describing the game, assets and converter it was built from, followed by an
+ * offset table for the baked variants and one for the states (indexed by {@link Block#BLOCK_STATE_REGISTRY} id)
+ * and the encoded data. Snapshots are memory-mapped and decoded lazily, one state or variant at a time.
+ */
+final class BootstrapSnapshot {
+    private static final int MAGIC = 0x4D455853;
+    private static final int FORMAT = 1;
+    private static final int MISSING = -1;
+    private static final int PART_FIXED = 0;
+    private static final int PART_WEIGHTED = 1;
+    private static final int PART_UNSUPPORTED = 2;
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final Direction.Axis[] AXES = Direction.Axis.values();
+
+    private final ByteBuffer buffer;
+    private final int[] variantOffsets;
+    private final int[] stateOffsets;
+    private final AtomicReferenceArray<BakedVariant> variants;
+
+    private BootstrapSnapshot(ByteBuffer buffer, int[] variantOffsets, int[] stateOffsets) {
+        this.buffer = buffer;
+        this.variantOffsets = variantOffsets;
+        this.stateOffsets = stateOffsets;
+        this.variants = new AtomicReferenceArray<>(variantOffsets.length);
+    }
+
+    /**
+     * @param gameVersion    the game version the vanilla models were loaded from
+     * @param assetIndexHash the hash of the asset index in {@link Main#assetsDirectory}
+     * @param stateCount     the number of registered block states
+     */
+    record Key(int format, int converterVersion, int assetVersion, String gameVersion, String assetIndexHash, int stateCount) {
+
+        static Key current() throws IOException {
+            var assetIndex = Main.assetsDirectory.resolve("indexes").resolve(Main.assetVersion + ".json");
+            var assetIndexHash = Files.isRegularFile(assetIndex)
+                    ? Hashing.sha256().hashBytes(Files.readAllBytes(assetIndex)).toString()
+                    : "";
+            return new Key(
+                    FORMAT,
+                    ModelConverter.VERSION,
+                    Main.assetVersion,
+                    SharedConstants.getCurrentVersion().name(),
+                    assetIndexHash,
+                    Block.BLOCK_STATE_REGISTRY.size()
+            );
+        }
+
+        private void write(DataOutputStream output) throws IOException {
+            output.writeInt(format);
+            output.writeInt(converterVersion);
+            output.writeInt(assetVersion);
+            output.writeUTF(gameVersion);
+            output.writeUTF(assetIndexHash);
+            output.writeInt(stateCount);
+        }
+
+        private static Key read(Cursor cursor) {
+            return new Key(cursor.readInt(), cursor.readInt(), cursor.readInt(), cursor.readUTF(), cursor.readUTF(), cursor.readInt());
+        }
+    }
+
+    /**
+     * Maps the snapshot at {@code file} if it exists and was built for {@code key}.
+     *
+     * @return the snapshot or {@code null} if it is missing, outdated or unreadable
+     */
+    @Nullable
+    static BootstrapSnapshot open(Path file, Key key) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            var cursor = new Cursor(buffer, 0);
+            if (cursor.readInt() != MAGIC || !Key.read(cursor).equals(key)) {
+                System.out.println("Bootstrap snapshot " + file + " is outdated");
+                return null;
+            }
+            var variantOffsets = new int[cursor.readInt()];
+            for (int i = 0; i < variantOffsets.length; i++) {
+                variantOffsets[i] = cursor.readInt();
+            }
+            var stateOffsets = new int[cursor.readInt()];
+            for (int i = 0; i < stateOffsets.length; i++) {
+                stateOffsets[i] = cursor.readInt();
+            }
+            return new BootstrapSnapshot(buffer, variantOffsets, stateOffsets);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring unreadable bootstrap snapshot " + file + ": " + e);
+            return null;
+        }
+    }
+
+    StateGeometry geometry(BlockState state) {
+        int id = Block.BLOCK_STATE_REGISTRY.getId(state);
+        if (id < 0 || id >= stateOffsets.length || stateOffsets[id] == MISSING) {
+            return StateGeometry.EMPTY;
+        }
+        var cursor = new Cursor(buffer, stateOffsets[id]);
+        var parts = new ArrayList<StateGeometry.Part>();
+        for (int i = cursor.readInt(); i > 0; i--) {
+            parts.add(readPart(cursor));
+        }
+        return new StateGeometry(parts);
+    }
+
+    private StateGeometry.Part readPart(Cursor cursor) {
+        return switch (cursor.readByte()) {
+            case PART_FIXED -> new StateGeometry.Fixed(variant(cursor.readInt()));
+            case PART_WEIGHTED -> {
+                var builder = WeightedList.<StateGeometry.Part>builder();
+                for (int i = cursor.readInt(); i > 0; i--) {
+                    int weight = cursor.readInt();
+                    builder.add(readPart(cursor), weight);
+                }
+                yield new StateGeometry.Weighted(builder.build());
+            }
+            default -> StateGeometry.Unsupported.INSTANCE;
+        };
+    }
+
+    private BakedVariant variant(int index) {
+        var variant = variants.get(index);
+        if (variant != null) {
+            return variant;
+        }
+        var decoded = readVariant(new Cursor(buffer, variantOffsets[index]));
+        return variants.compareAndSet(index, null, decoded) ? decoded : variants.get(index);
+    }
+
+    private static BakedVariant readVariant(Cursor cursor) {
+        var modelLocation = ResourceLocation.parse(cursor.readUTF());
+        var elements = new ArrayList<BakedVariant.Element>();
+        for (int i = cursor.readInt(); i > 0; i--) {
+            var from = cursor.readVector();
+            var to = cursor.readVector();
+            BlockElementRotation rotation = null;
+            if (cursor.readByte() != 0) {
+                rotation = new BlockElementRotation(cursor.readVector(), AXES[cursor.readByte()], cursor.readFloat(), cursor.readByte() != 0);
+            }
+            var faces = new ArrayList<BakedVariant.Face>();
+            for (int j = cursor.readInt(); j > 0; j--) {
+                var direction = DIRECTIONS[cursor.readByte()];
+                int cullFace = cursor.readByte();
+                var uv = new float[]{cursor.readFloat(), cursor.readFloat(), cursor.readFloat(), cursor.readFloat()};
+                int uvRotation = cursor.readInt();
+                var texture = cursor.readUTF();
+                faces.add(new BakedVariant.Face(
+                        direction,
+                        cullFace == MISSING ? null : DIRECTIONS[cullFace],
+                        uv,
+                        uvRotation,
+                        texture.isEmpty() ? null : ResourceLocation.parse(texture)
+                ));
+            }
+            elements.add(new BakedVariant.Element(from, to, rotation, List.copyOf(faces)));
+        }
+        return new BakedVariant(modelLocation, List.copyOf(elements));
+    }
+
+    /**
+     * Bakes every registered block state with the loaded models and writes the result to {@code file}.
+     */
+    static void write(Path file, Key key) throws IOException {
+        write(file, key, state -> ModelConverter.hasModel(state) ? ModelConverter.geometry(state) : null);
+    }
+
+    /**
+     * Writes the geometry {@code geometries} returns for every registered block state to {@code file}, states it
+     * returns {@code null} for are left out.
+     */
+    static void write(Path file, Key key, Function<BlockState, StateGeometry> geometries) throws IOException {
+        var variantIndices = new IdentityHashMap<BakedVariant, Integer>();
+        var variantList = new ArrayList<BakedVariant>();
+        var states = new ByteArrayOutputStream();
+        var stateData = new DataOutputStream(states);
+        var stateOffsets = new int[key.stateCount()];
+        for (int id = 0; id < stateOffsets.length; id++) {
+            var state = Block.BLOCK_STATE_REGISTRY.byId(id);
+            if (state == null) {
+                stateOffsets[id] = MISSING;
+                continue;
+            }
+            StateGeometry geometry;
+            try {
+                geometry = geometries.apply(state);
+            } catch (RuntimeException e) {
+                System.out.println("Leaving " + state + " out of the bootstrap snapshot: " + e);
+                stateOffsets[id] = MISSING;
+                continue;
+            }
+            if (geometry == null) {
+                stateOffsets[id] = MISSING;
+                continue;
+            }
+            stateOffsets[id] = stateData.size();
+            stateData.writeInt(geometry.parts().size());
+            for (var part : geometry.parts()) {
+                writePart(stateData, part, variantIndices, variantList);
+            }
+        }
+
+        var variants = new ByteArrayOutputStream();
+        var variantData = new DataOutputStream(variants);
+        var variantOffsets = new int[variantList.size()];
+        for (int i = 0; i < variantOffsets.length; i++) {
+            variantOffsets[i] = variantData.size();
+            writeVariant(variantData, variantList.get(i));
+        }
+
+        var header = new ByteArrayOutputStream();
+        var headerData = new DataOutputStream(header);
+        headerData.writeInt(MAGIC);
+        key.write(headerData);
+        int tablesSize = 4 + variantOffsets.length * 4 + 4 + stateOffsets.length * 4;
+        int variantStart = headerData.size() + tablesSize;
+        int stateStart = variantStart + variantData.size();
+        headerData.writeInt(variantOffsets.length);
+        for (int offset : variantOffsets) {
+            headerData.writeInt(variantStart + offset);
+        }
+        headerData.writeInt(stateOffsets.length);
+        for (int offset : stateOffsets) {
+            headerData.writeInt(offset == MISSING ? MISSING : stateStart + offset);
+        }
+
+        Files.createDirectories(file.getParent());
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var output = Files.newOutputStream(temp)) {
+            header.writeTo(output);
+            variants.writeTo(output);
+            states.writeTo(output);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writePart(
+            DataOutputStream output,
+            StateGeometry.Part part,
+            Map<BakedVariant, Integer> variantIndices,
+            List<BakedVariant> variantList
+    ) throws IOException {
+        switch (part) {
+            case StateGeometry.Fixed(BakedVariant variant) -> {
+                output.writeByte(PART_FIXED);
+                output.writeInt(variantIndices.computeIfAbsent(variant, key -> {
+                    variantList.add(key);
+                    return variantList.size() - 1;
+                }));
+            }
+            case StateGeometry.Weighted(WeightedList<StateGeometry.Part> entries) -> {
+                output.writeByte(PART_WEIGHTED);
+                var unwrapped = entries.unwrap();
+                output.writeInt(unwrapped.size());
+                for (var entry : unwrapped) {
+                    output.writeInt(entry.weight());
+                    writePart(output, entry.value(), variantIndices, variantList);
+                }
+            }
+            case StateGeometry.Unsupported unsupported -> output.writeByte(PART_UNSUPPORTED);
+        }
+    }
+
+    private static void writeVariant(DataOutputStream output, BakedVariant variant) throws IOException {
+        output.writeUTF(variant.modelLocation().toString());
+        output.writeInt(variant.elements().size());
+        for (var element : variant.elements()) {
+            writeVector(output, element.from().x(), element.from().y(), element.from().z());
+            writeVector(output, element.to().x(), element.to().y(), element.to().z());
+            var rotation = element.rotation();
+            output.writeByte(rotation != null ? 1 : 0);
+            if (rotation != null) {
+                writeVector(output, rotation.origin().x(), rotation.origin().y(), rotation.origin().z());
+                output.writeByte(rotation.axis().ordinal());
+                output.writeFloat(rotation.angle());
+                output.writeByte(rotation.rescale() ? 1 : 0);
+            }
+            output.writeInt(element.faces().size());
+            for (var face : element.faces()) {
+                output.writeByte(face.direction().ordinal());
+                output.writeByte(face.cullFace() != null ? face.cullFace().ordinal() : MISSING);
+                for (float value : face.uv()) {
+                    output.writeFloat(value);
+                }
+                output.writeInt(face.rotation());
+                output.writeUTF(face.texture() != null ? face.texture().toString() : "");
+            }
+        }
+    }
+
+    private static void writeVector(DataOutputStream output, float x, float y, float z) throws IOException {
+        output.writeFloat(x);
+        output.writeFloat(y);
+        output.writeFloat(z);
+    }
+
+    /**
+     * Reads from an absolute position without touching the position of the shared buffer.
+     */
+    private static final class Cursor {
+        private final ByteBuffer buffer;
+        private int position;
+
+        private Cursor(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        byte readByte() {
+            return buffer.get(position++);
+        }
+
+        int readInt() {
+            int value = buffer.getInt(position);
+            position += 4;
+            return value;
+        }
+
+        float readFloat() {
+            float value = buffer.getFloat(position);
+            position += 4;
+            return value;
+        }
+
+        Vector3f readVector() {
+            return new Vector3f(readFloat(), readFloat(), readFloat());
+        }
+
+        /**
+         * Reads a string in the format of {@link DataOutputStream#writeUTF(String)}, which matches standard UTF-8
+         * for the resource locations stored here.
+         */
+        String readUTF() {
+            int length = buffer.getShort(position) & 0xFFFF;
+            var bytes = new byte[length];
+            buffer.get(position + 2, bytes);
+            position += 2 + length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package gay.mona.model.converter;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event spanning the conversion of a single structure, from reading the file to the finished model.
+ * It is only recorded while a recording is running, for example with {@code -XX:StartFlightRecording}.
+ */
+@Name("gay.mona.model.converter.Conversion")
+@Label("Structure Conversion")
+@Category("Model Exporter")
+@StackTrace(false)
+final class ConversionEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Blocks")
+    int blocks;
+
+    @Label("Elements")
+    int elements;
+
+    @Label("Culled Faces")
+    int culledFaces;
+
+    @Label("Textures")
+    @Description("Number of distinct textures referenced by the model")
+    int textures;
+
+    @Label("Allocated")
+    @Description("Bytes allocated while placing and writing elements")
+    @DataAmount
+    long allocated;
+
+    @Label("NBT Decode")
+    @Timespan(Timespan.NANOSECONDS)
+    long nbtDecode;
+
+    @Label("Template Load")
+    @Timespan(Timespan.NANOSECONDS)
+    long templateLoad;
+
+    @Label("Occlusion")
+    @Timespan(Timespan.NANOSECONDS)
+    long occlusion;
+
+    @Label("Variant Resolution")
+    @Timespan(Timespan.NANOSECONDS)
+    long variantResolution;
+
+    @Label("Element Transform")
+    @Timespan(Timespan.NANOSECONDS)
+    long elementTransform;
+
+    @Label("UV Computation")
+    @Timespan(Timespan.NANOSECONDS)
+    long uvComputation;
+
+    @Label("Merge")
+    @Timespan(Timespan.NANOSECONDS)
+    long merge;
+
+    @Label("Serialization")
+    @Timespan(Timespan.NANOSECONDS)
+    long serialization;
+
+    @Label("Atlas Stitching")
+    @Description("Decoding, packing and encoding the texture atlases")
+    @Timespan(Timespan.NANOSECONDS)
+    long atlas;
+
+    void set(String file, ConversionStats stats) {
+        this.file = file;
+        this.blocks = stats.blocks;
+        this.elements = stats.elements;
+        this.culledFaces = stats.culledFaces;
+        this.textures = stats.textures();
+        this.allocated = stats.allocatedBytes;
+        this.nbtDecode = stats.nbtDecodeNanos;
+        this.templateLoad = stats.templateLoadNanos;
+        this.occlusion = stats.occlusionNanos;
+        this.variantResolution = stats.variantResolutionNanos;
+        this.elementTransform = stats.elementTransformNanos;
+        this.uvComputation = stats.uvComputationNanos;
+        this.merge = stats.mergeNanos;
+        this.serialization = stats.serializationNanos;
+        this.atlas = stats.atlasNanos;
+    }
+}
@@ -0,0 +1,120 @@
+package gay.mona.model.converter;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which inputs were converted into an output directory, keyed by the input path relative to the input
+ * directory. An input whose hash matches the recorded one and whose output still exists does not need to be
+ * converted again.
+ * <p>
+ * The hash covers the raw input bytes, {@link Main#assetVersion}, {@link ModelConverter#VERSION} and the
+ * converter options, so changing any of those reconverts everything.
+ */
+public class ConversionManifest {
+    public static final String FILE_NAME = ".model-exporter-manifest.json";
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private final Path file;
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+    private ConversionManifest(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates an empty manifest for an output directory, every input counts as changed.
+     */
+    public static ConversionManifest empty(Path outputPath) {
+        return new ConversionManifest(outputPath.resolve(FILE_NAME));
+    }
+
+    /**
+     * Loads the manifest of an output directory, a missing or unreadable manifest is treated as empty.
+     */
+    public static ConversionManifest load(Path outputPath) {
+        var manifest = empty(outputPath);
+        if (!Files.isRegularFile(manifest.file)) {
+            return manifest;
+        }
+        try (var reader = Files.newBufferedReader(manifest.file)) {
+            var root = JsonParser.parseReader(reader);
+            if (!root.isJsonObject() || !root.getAsJsonObject().has("entries") || !root.getAsJsonObject().get("entries").isJsonObject()) {
+                System.out.println("Ignoring manifest " + manifest.file + " without entries");
+                return manifest;
+            }
+            for (var entry : root.getAsJsonObject().getAsJsonObject("entries").entrySet()) {
+                if (!entry.getValue().isJsonPrimitive()) {
+                    throw new JsonParseException("Hash of " + entry.getKey() + " is not a string");
+                }
+                manifest.hashes.put(entry.getKey(), entry.getValue().getAsString());
+            }
+        } catch (IOException | JsonParseException e) {
+            System.out.println("Ignoring unreadable manifest " + manifest.file + ": " + e);
+            manifest.hashes.clear();
+        }
+        return manifest;
+    }
+
+    public static String hash(byte[] input, ConverterOptions options) {
+        return Hashing.sha256().newHasher()
+                .putInt(Main.assetVersion)
+                .putInt(ModelConverter.VERSION)
+                .putUnencodedChars(options.toString())
+                .putBytes(input)
+                .hash()
+                .toString();
+    }
+
+    public static String key(Path relativeInput) {
+        return relativeInput.toString().replace('\\', '/');
+    }
+
+    public boolean isUpToDate(String key, String hash, Path outputFile) {
+        return hash.equals(hashes.get(key)) && Files.isRegularFile(outputFile);
+    }
+
+    public void put(String key, String hash) {
+        hashes.put(key, hash);
+    }
+
+    public void remove(String key) {
+        hashes.remove(key);
+    }
+
+    /**
+     * @return the keys of all recorded inputs that are not part of {@code present}
+     */
+    public Set<String> missingFrom(Collection<String> present) {
+        var missing = new HashSet<>(hashes.keySet());
+        missing.removeAll(present);
+        return missing;
+    }
+
+    public void save() throws IOException {
+        var entries = new JsonObject();
+        new TreeMap<>(hashes).forEach(entries::addProperty);
+        var root = new JsonObject();
+        root.add("entries", entries);
+
+        Files.createDirectories(file.getParent());
+        var temp = file.resolveSibling(FILE_NAME + ".tmp");
+        Files.writeString(temp, GSON.toJson(root));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,647 @@
+package gay.mona.model.converter;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.levelgen.structure.templatesystem.StructureTemplate;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Converts structure files in two stages: read, then convert while streaming the model to disk.
+ * <p>
+ * Reading runs on virtual threads, conversion runs on a fixed pool of {@code threads} workers.
+ * At most {@code 2 * threads} files are in flight at any time, {@link #submit(Path)} blocks until a slot frees
+ * up, which keeps the number of loaded templates and models on the heap bounded.
+ * A failing file is reported and skipped, it never affects other files. Inputs the {@link ConversionManifest} knows
+ * to be unchanged are skipped after reading.
+ * The models of a file, its palettes, levels of detail or tiles, are converted in parallel from the same loaded
+ * template.
+ * Every converted file records a {@link ConversionStats}, see {@link #writeReport(Path)}, and a {@link ConversionEvent}.
+ * With a texture atlas, the textures of all inputs are decoded once on the io threads and every model stitches its
+ * own atlas on its conversion thread.
+ */
+public class ConversionPipeline implements AutoCloseable {
+    /**
+     * Matches the suffix of a tile model, {@code _tile_<x>_<y>_<z>}.
+     */
+    private static final String TILE_SUFFIX = "_tile_\\d+_\\d+_\\d+";
+
+    private final Path inputPath;
+    private final Path outputPath;
+    private final ConverterOptions options;
+    @Nullable
+    private final ConversionManifest manifest;
+    private final CompletableFuture<?> ready;
+    @Nullable
+    private final ResourcePackZip zip;
+    @Nullable
+    private final TextureSource textures;
+    private final Set<String> seenInputs = ConcurrentHashMap.newKeySet();
+    private final ExecutorService ioExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService convertExecutor;
+    private final Semaphore inFlight;
+    /**
+     * Every submitted file is a party until it completes, the one initial party is {@link #awaitCompletion()}.
+     */
+    private final Phaser pending = new Phaser(1);
+    private final AtomicInteger converted = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong elementsBeforeMerge = new AtomicLong();
+    private final AtomicLong elements = new AtomicLong();
+    private final Map<String, ConversionStats> fileStats = new ConcurrentHashMap<>();
+    private final Map<String, List<ConversionStats>> fileLodStats = new ConcurrentHashMap<>();
+
+    /**
+     * @param manifest the manifest used to skip unchanged inputs or {@code null} to convert every input
+     * @param ready    completes once {@link ModelConverter} is bootstrapped, inputs are already read before that
+     * @param zip      the resource pack to write models into at their path relative to {@code outputPath} or
+     *                 {@code null} to write loose files, outputs are never deleted from a zip
+     */
+    public ConversionPipeline(
+            Path inputPath,
+            Path outputPath,
+            int threads,
+            ConverterOptions options,
+            @Nullable ConversionManifest manifest,
+            CompletableFuture<?> ready,
+            @Nullable ResourcePackZip zip
+    ) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+        }
+        this.inputPath = inputPath;
+        this.outputPath = outputPath;
+        this.options = options;
+        this.manifest = manifest;
+        this.ready = ready;
+        this.zip = zip;
+        this.textures = options.atlasPrefix() != null ? new TextureSource(ModelConverter.createResourceManager(), ioExecutor) : null;
+        this.convertExecutor = Executors.newFixedThreadPool(threads);
+        this.inFlight = new Semaphore(threads * 2);
+    }
+
+    public void submit(Path file) throws InterruptedException {
+        var relative = inputPath.relativize(file);
+        seenInputs.add(ConversionManifest.key(relative));
+        inFlight.acquire();
+        pending.register();
+        CompletableFuture.supplyAsync(() -> read(file, relative), ioExecutor)
+                .thenCombine(ready, (context, ignored) -> context)
+                .thenApplyAsync(context -> {
+                    // in lazy mode the models an input uses are loaded on the io threads, before it is converted
+                    if (context != null && ModelConverter.isLazy()) {
+                        ModelConverter.preload(context.template());
+                    }
+                    return context;
+                }, ioExecutor)
+                .thenCompose(context -> {
+                    if (context == null) {
+                        skipped.incrementAndGet();
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    int palettes = options.allPalettes() ? context.template().palettes.size() : 1;
+                    var conversions = IntStream.range(0, palettes).mapToObj(palette -> convertPalette(context, palette)).toList();
+                    return CompletableFuture.allOf(conversions.toArray(CompletableFuture[]::new))
+                            .thenAccept(ignored -> finish(context, conversions.stream().flatMap(conversion -> conversion.join().stream()).toList()))
+                            .thenRun(converted::incrementAndGet);
+                })
+                .whenComplete((ignored, throwable) -> {
+                    inFlight.release();
+                    try {
+                        if (throwable != null) {
+                            failed.incrementAndGet();
+                            System.out.println("Failed to convert " + relative);
+                            throwable.printStackTrace(System.out);
+                        }
+                    } finally {
+                        pending.arriveAndDeregister();
+                    }
+                });
+    }
+
+    /**
+     * Deletes the outputs of inputs that are recorded in the manifest but were not submitted in this run.
+     * Only call this after every input was submitted.
+     */
+    public void removeDeletedInputs() throws IOException {
+        if (manifest == null) {
+            return;
+        }
+        for (var key : manifest.missingFrom(seenInputs)) {
+            removeOutput(key);
+        }
+    }
+
+    /**
+     * Deletes the output of an input file that no longer exists.
+     */
+    public void remove(Path file) throws IOException {
+        var key = ConversionManifest.key(inputPath.relativize(file));
+        seenInputs.remove(key);
+        removeOutput(key);
+    }
+
+    private void removeOutput(String key) throws IOException {
+        var relative = Path.of(key);
+        boolean existed = Files.exists(primaryOutputFile(relative));
+        deleteOutputs(relative, "(_palette\\d+)?(_lod\\d+|" + TILE_SUFFIX + "|_tiles)?", Set.of());
+        if (existed) {
+            System.out.println("Removed output of deleted input " + key);
+        }
+        if (manifest != null) {
+            manifest.remove(key);
+        }
+        fileStats.remove(key);
+        fileLodStats.remove(key);
+    }
+
+    /**
+     * Waits for every submitted file, failures are already reported and do not throw here.
+     */
+    public void awaitCompletion() {
+        pending.arriveAndAwaitAdvance();
+    }
+
+    public int converted() {
+        return converted.get();
+    }
+
+    public int failed() {
+        return failed.get();
+    }
+
+    public int skipped() {
+        return skipped.get();
+    }
+
+    public long elementsBeforeMerge() {
+        return elementsBeforeMerge.get();
+    }
+
+    public long elements() {
+        return elements.get();
+    }
+
+    /**
+     * Writes the counters and phase timings of every structure converted so far as JSON, along with their totals.
+     * LOD levels are listed per file and left out of the totals, they hold the same blocks as the full model.
+     */
+    public void writeReport(Path reportFile) throws IOException {
+        var totals = new ConversionStats();
+        var files = new JsonObject();
+        for (var entry : new TreeMap<>(fileStats).entrySet()) {
+            totals.add(entry.getValue());
+            var file = entry.getValue().toJson();
+            var lodStats = fileLodStats.getOrDefault(entry.getKey(), List.of());
+            if (!lodStats.isEmpty()) {
+                var lodLevels = new JsonArray();
+                for (var level : lodStats) {
+                    lodLevels.add(level.toJson());
+                }
+                file.add("lodLevels", lodLevels);
+            }
+            files.add(entry.getKey(), file);
+        }
+
+        var resolvedModels = new JsonObject();
+        resolvedModels.addProperty("hits", ModelConverter.resolvedModelHits());
+        resolvedModels.addProperty("misses", ModelConverter.resolvedModelMisses());
+
+        var report = new JsonObject();
+        report.addProperty("converted", converted());
+        report.addProperty("unchanged", skipped());
+        report.addProperty("failed", failed());
+        report.addProperty("unsupportedStates", ModelConverter.unsupportedStates());
+        report.add("resolvedModelCache", resolvedModels);
+        report.add("totals", totals.toJson());
+        report.add("files", files);
+
+        var parent = reportFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(reportFile, new GsonBuilder().setPrettyPrinting().create().toJson(report));
+    }
+
+    /**
+     * @return the loaded input or {@code null} if the manifest says the output is up to date
+     */
+    @Nullable
+    private Context read(Path file, Path relative) {
+        var event = new ConversionEvent();
+        event.begin();
+        try {
+            var bytes = Files.readAllBytes(file);
+            var hash = ConversionManifest.hash(bytes, options);
+            if (manifest != null && manifest.isUpToDate(ConversionManifest.key(relative), hash, primaryOutputFile(relative))) {
+                return null;
+            }
+            var stats = new ConversionStats();
+            long start = System.nanoTime();
+            var tag = Objects.requireNonNull(NbtIo.readCompressed(new ByteArrayInputStream(bytes), NbtAccounter.unlimitedHeap()));
+            stats.nbtDecodeNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            var structure = new StructureTemplate();
+            structure.load(BuiltInRegistries.BLOCK, tag);
+            stats.templateLoadNanos = System.nanoTime() - start;
+            var lodStats = new ArrayList<ConversionStats>(options.lodLevels());
+            for (int level = 1; level <= options.lodLevels(); level++) {
+                lodStats.add(new ConversionStats());
+            }
+            return new Context(relative, hash, structure, ModelConverter.Layout.of(structure), stats, lodStats, event);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Converts the models of a palette in parallel.
+     *
+     * @return the written models
+     */
+    private CompletableFuture<List<Model>> convertPalette(Context context, int palette) {
+        return CompletableFuture.supplyAsync(() -> models(context, palette), convertExecutor).thenCompose(models -> {
+            var conversions = models.stream()
+                    .map(model -> CompletableFuture.supplyAsync(() -> convert(context, model), convertExecutor))
+                    .toList();
+            return CompletableFuture.allOf(conversions.toArray(CompletableFuture[]::new))
+                    .thenApply(ignored -> conversions.stream().map(CompletableFuture::join).filter(Objects::nonNull).toList());
+        });
+    }
+
+    /**
+     * Builds the voxel grid of a palette and splits it into the models to write: the model and its LOD levels,
+     * or one model per tile that has blocks.
+     */
+    private List<Model> models(Context context, int palette) {
+        var relative = context.fileName();
+        var paletteSuffix = palette == 0 ? "" : "_palette" + palette;
+        var grids = new ArrayList<VoxelGrid>(options.lodLevels() + 1);
+        var levelStats = new ArrayList<ConversionStats>(options.lodLevels() + 1);
+        for (int level = 0; level <= options.lodLevels(); level++) {
+            var stats = new ConversionStats();
+            long start = System.nanoTime();
+            grids.add(level == 0 ? ModelConverter.grid(context.template(), palette) : grids.getLast().downsample());
+            stats.occlusionNanos += System.nanoTime() - start;
+            levelStats.add(stats);
+        }
+        if (options.cullInterior()) {
+            // after downsampling, lower levels pick their blocks from the whole structure
+            for (int level = 0; level < grids.size(); level++) {
+                var stats = levelStats.get(level);
+                long start = System.nanoTime();
+                stats.enclosedBlocks += grids.get(level).removeEnclosed();
+                stats.occlusionNanos += System.nanoTime() - start;
+            }
+        }
+        for (int level = 0; level < levelStats.size(); level++) {
+            var stats = context.stats(level);
+            synchronized (stats) {
+                stats.add(levelStats.get(level));
+            }
+        }
+
+        var models = new ArrayList<Model>();
+        if (options.tileSize() > 0) {
+            var grid = grids.getFirst();
+            int size = options.tileSize();
+            int margin = ModelConverter.Layout.tileMargin(size);
+            var layout = ModelConverter.Layout.tile(size);
+            for (int z = 0; z < grid.sizeZ(); z += size) {
+                for (int y = 0; y < grid.sizeY(); y += size) {
+                    for (int x = 0; x < grid.sizeX(); x += size) {
+                        var region = new BoundingBox(x, y, z, x + size - 1, y + size - 1, z + size - 1);
+                        if (grid.hasBlocks(region)) {
+                            var file = outputFile(relative, paletteSuffix + "_tile_" + x / size + "_" + y / size + "_" + z / size);
+                            models.add(new Model(file, palette, 0, grid, region, layout, new BlockPos(x + margin, y + margin, z + margin)));
+                        }
+                    }
+                }
+            }
+        } else {
+            for (int level = 0; level < grids.size(); level++) {
+                var grid = grids.get(level);
+                var file = outputFile(relative, paletteSuffix + (level == 0 ? "" : "_lod" + level));
+                models.add(new Model(file, palette, level, grid, grid.bounds(), context.layout().lod(level), null));
+            }
+        }
+        return models;
+    }
+
+    /**
+     * Converts a model and streams it into a temporary file next to the output, which replaces the output once the
+     * model is complete. The models of an input are converted at the same time.
+     *
+     * @return the model or {@code null} if it is a tile without any visible element, those are not written
+     */
+    @Nullable
+    private Model convert(Context context, Model model) {
+        var outputFile = model.file();
+        var stats = new ConversionStats();
+        var atlas = stitchAtlas(model, stats);
+        if (zip != null) {
+            var bytes = new ByteArrayOutputStream();
+            try {
+                try (var json = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+                    ModelConverter.convert(model.grid(), model.region(), model.layout(), options, stats, json, atlas);
+                }
+                if (model.offset() != null && stats.elements() == 0) {
+                    return null;
+                }
+                zip.write(entryName(outputFile), bytes.toByteArray());
+                writeAtlas(outputFile, atlas, stats);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            var tempFile = outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(outputFile.getParent());
+                try (var json = new JsonWriter(Files.newBufferedWriter(tempFile))) {
+                    ModelConverter.convert(model.grid(), model.region(), model.layout(), options, stats, json, atlas);
+                }
+                if (model.offset() != null && stats.elements() == 0) {
+                    Files.delete(tempFile);
+                    return null;
+                }
+                writeAtlas(outputFile, atlas, stats);
+                Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        var levelStats = context.stats(model.level());
+        synchronized (levelStats) {
+            levelStats.add(stats);
+        }
+        return model;
+    }
+
+    /**
+     * Stitches the textures the model may use into an atlas, if atlases are on.
+     *
+     * @return the atlas or {@code null} without atlases or textures
+     */
+    @Nullable
+    private TextureAtlas stitchAtlas(Model model, ConversionStats stats) {
+        if (textures == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        var atlas = TextureAtlas.stitch(atlasLocation(model.file()), textures.load(ModelConverter.textures(model.grid(), model.region())));
+        stats.atlasNanos += System.nanoTime() - start;
+        return atlas;
+    }
+
+    /**
+     * Writes the atlas of a model where its texture reference points, before the model so it never references a
+     * missing atlas. Without textures a stale atlas of an earlier run is deleted.
+     */
+    private void writeAtlas(Path modelFile, @Nullable TextureAtlas atlas, ConversionStats stats) throws IOException {
+        if (textures == null) {
+            return;
+        }
+        var atlasFile = atlasFile(modelFile);
+        if (atlas == null) {
+            if (zip == null) {
+                Files.deleteIfExists(atlasFile);
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        var png = atlas.toPng();
+        if (zip != null) {
+            zip.write(entryName(atlasFile), png);
+        } else {
+            Files.createDirectories(atlasFile.getParent());
+            var tempFile = atlasFile.resolveSibling(atlasFile.getFileName() + ".tmp");
+            Files.write(tempFile, png);
+            Files.move(tempFile, atlasFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        stats.atlasNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Records an input once all of its models are written. The stats of an input sum up the full models of all
+     * palettes and tiles, each LOD level is counted separately.
+     */
+    private void finish(Context context, List<Model> written) {
+        if (options.tileSize() > 0) {
+            int palettes = options.allPalettes() ? context.template().palettes.size() : 1;
+            try {
+                for (int palette = 0; palette < palettes; palette++) {
+                    int finalPalette = palette;
+                    writeTileIndex(context.fileName(), palette, written.stream().filter(model -> model.palette() == finalPalette).toList());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        var stats = context.stats();
+        var key = ConversionManifest.key(context.fileName());
+        fileStats.put(key, stats);
+        fileLodStats.put(key, context.lodStats());
+        elementsBeforeMerge.addAndGet(stats.elementsBeforeMerge());
+        elements.addAndGet(stats.elements());
+        var event = context.event();
+        if (event.shouldCommit()) {
+            event.set(key, stats);
+            event.commit();
+        }
+        if (options.merge()) {
+            System.out.println("Merged " + context.fileName() + ": " + stats.elementsBeforeMerge() + " -> " + stats.elements() + " elements");
+        }
+        if (manifest != null) {
+            manifest.put(key, context.hash());
+        }
+    }
+
+    /**
+     * Writes {@code <name>_tiles.json} or {@code <name>_palette<palette>_tiles.json}, listing every tile model of
+     * the palette with the block offset from the structure origin it has to be placed at. Tiles of earlier runs that
+     * are no longer part of the structure are deleted.
+     */
+    private void writeTileIndex(Path relative, int palette, List<Model> tiles) throws IOException {
+        var paletteSuffix = palette == 0 ? "" : "_palette" + palette;
+        var tileArray = new JsonArray();
+        var tileFiles = new HashSet<Path>();
+        for (var tile : tiles) {
+            var offset = new JsonArray();
+            offset.add(tile.offset().getX());
+            offset.add(tile.offset().getY());
+            offset.add(tile.offset().getZ());
+            var entry = new JsonObject();
+            entry.addProperty("model", tile.file().getFileName().toString().replace(".json", ""));
+            entry.add("offset", offset);
+            tileArray.add(entry);
+            tileFiles.add(tile.file());
+        }
+        var index = new JsonObject();
+        index.addProperty("tileSize", options.tileSize());
+        index.add("tiles", tileArray);
+
+        var indexFile = outputFile(relative, paletteSuffix + "_tiles");
+        var content = new GsonBuilder().setPrettyPrinting().create().toJson(index);
+        if (zip != null) {
+            zip.write(entryName(indexFile), content.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        var tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        Files.writeString(tempFile, content);
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        deleteOutputs(relative, paletteSuffix + TILE_SUFFIX, tileFiles);
+    }
+
+    /**
+     * @return the path of an output file in the resource pack zip, the same as relative to the output folder
+     */
+    private String entryName(Path outputFile) {
+        return outputPath.relativize(outputFile).toString().replace('\\', '/');
+    }
+
+    /**
+     * Deletes every {@code <name><suffix>.json} output of an input that is not in {@code keep}, along with its atlas. The
+     * suffix is a regular expression that has to match the whole rest of the name, so outputs of other inputs
+     * starting with the same name are left alone.
+     */
+    private void deleteOutputs(Path relative, String suffix, Set<Path> keep) throws IOException {
+        var directory = outputFile(relative, "").getParent();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        var name = relative.getFileName().toString().replace(".nbt", "");
+        var pattern = Pattern.compile(Pattern.quote(name) + suffix + "\\.json");
+        try (var files = Files.newDirectoryStream(directory, file -> pattern.matcher(file.getFileName().toString()).matches() && !keep.contains(file))) {
+            for (var file : files) {
+                Files.delete(file);
+                if (textures != null) {
+                    Files.deleteIfExists(atlasFile(file));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the file {@code <name><suffix>.json} next to where the input lies in the output folder
+     */
+    private Path outputFile(Path relativeInput, String suffix) {
+        return outputPath.resolve(relativeInput).resolveSibling(relativeInput.getFileName().toString().replace(".nbt", suffix + ".json"));
+    }
+
+    /**
+     * @return the texture a model references its atlas as, the atlas prefix followed by the path of the model in the
+     * output folder and {@code _atlas}, lower cased with characters a texture path can't hold replaced by {@code _}
+     */
+    private ResourceLocation atlasLocation(Path modelFile) {
+        var path = entryName(modelFile);
+        path = (path.substring(0, path.length() - ".json".length()) + "_atlas").toLowerCase(Locale.ROOT);
+        var sanitized = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            sanitized.append(ResourceLocation.validPathChar(c) ? c : '_');
+        }
+        return ResourceLocation.parse(options.atlasPrefix() + sanitized);
+    }
+
+    /**
+     * @return the file the game loads {@link #atlasLocation(Path)} from, {@code assets/<namespace>/textures/<path>.png}
+     * in the output folder or zip
+     */
+    private Path atlasFile(Path modelFile) {
+        var location = atlasLocation(modelFile);
+        return outputPath.resolve("assets").resolve(location.getNamespace()).resolve("textures").resolve(location.getPath() + ".png");
+    }
+
+    /**
+     * @return the model of an input or the tile index when tiling
+     */
+    private Path primaryOutputFile(Path relativeInput) {
+        return outputFile(relativeInput, options.tileSize() > 0 ? "_tiles" : "");
+    }
+
+    public void saveManifest() throws IOException {
+        if (manifest != null) {
+            manifest.save();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        awaitCompletion();
+        convertExecutor.shutdown();
+        ioExecutor.shutdown();
+        saveManifest();
+    }
+
+    /**
+     * A loaded input, its layout is shared by all palettes.
+     *
+     * @param stats    the stats of the full models
+     * @param lodStats the stats of each LOD level, starting at level 1
+     */
+    record Context(
+            Path fileName,
+            String hash,
+            StructureTemplate template,
+            ModelConverter.Layout layout,
+            ConversionStats stats,
+            List<ConversionStats> lodStats,
+            ConversionEvent event
+    ) {
+        ConversionStats stats(int level) {
+            return level == 0 ? stats : lodStats.get(level - 1);
+        }
+    }
+
+    /**
+     * A model file to write from a region of a grid.
+     *
+     * @param level  the LOD level, 0 for the full model and tiles
+     * @param offset the block offset of a tile from the structure origin, {@code null} for a whole structure
+     */
+    record Model(Path file, int palette, int level, VoxelGrid grid, BoundingBox region, ModelConverter.Layout layout, @Nullable BlockPos offset) {}
+
+}
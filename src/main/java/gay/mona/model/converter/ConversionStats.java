@@ -0,0 +1,151 @@
+package gay.mona.model.converter;
+
+import com.google.gson.JsonObject;
+import net.minecraft.resources.ResourceLocation;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters and phase timings collected while converting a single structure. Timings are in nanoseconds.
+ * Not thread safe, a structure is only worked on by one thread at a time.
+ */
+public class ConversionStats {
+    long nbtDecodeNanos;
+    long templateLoadNanos;
+    long occlusionNanos;
+    long variantResolutionNanos;
+    long elementTransformNanos;
+    long uvComputationNanos;
+    long mergeNanos;
+    long serializationNanos;
+    long atlasNanos;
+    long allocatedBytes;
+
+    int blocks;
+    int blocksWithoutModel;
+    int enclosedBlocks;
+    int culledFaces;
+    int elementsBeforeMerge;
+    int elements;
+    /**
+     * The distinct textures referenced by the models, {@code null} for a missing texture.
+     */
+    final Set<ResourceLocation> textures = new HashSet<>();
+
+    /**
+     * @return the number of elements emitted before the merge pass, equal to {@link #elements()} if merging is off
+     */
+    public int elementsBeforeMerge() {
+        return elementsBeforeMerge;
+    }
+
+    public int elements() {
+        return elements;
+    }
+
+    public int blocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the number of blocks left out because they are enclosed, only counted with interior culling on
+     */
+    public int enclosedBlocks() {
+        return enclosedBlocks;
+    }
+
+    public int culledFaces() {
+        return culledFaces;
+    }
+
+    /**
+     * @return the number of distinct textures referenced, a texture used by several models is counted once
+     */
+    public int textures() {
+        return textures.size();
+    }
+
+    /**
+     * @return the bytes allocated while placing and writing elements, template loading and grid building excluded
+     */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long totalNanos() {
+        return nbtDecodeNanos + templateLoadNanos + occlusionNanos + variantResolutionNanos + elementTransformNanos
+                + uvComputationNanos + mergeNanos + serializationNanos + atlasNanos;
+    }
+
+    /**
+     * Adds the counters and timings of {@code other} to this instance.
+     */
+    public void add(ConversionStats other) {
+        nbtDecodeNanos += other.nbtDecodeNanos;
+        templateLoadNanos += other.templateLoadNanos;
+        occlusionNanos += other.occlusionNanos;
+        variantResolutionNanos += other.variantResolutionNanos;
+        elementTransformNanos += other.elementTransformNanos;
+        uvComputationNanos += other.uvComputationNanos;
+        mergeNanos += other.mergeNanos;
+        serializationNanos += other.serializationNanos;
+        atlasNanos += other.atlasNanos;
+        allocatedBytes += other.allocatedBytes;
+        blocks += other.blocks;
+        blocksWithoutModel += other.blocksWithoutModel;
+        enclosedBlocks += other.enclosedBlocks;
+        culledFaces += other.culledFaces;
+        elementsBeforeMerge += other.elementsBeforeMerge;
+        elements += other.elements;
+        textures.addAll(other.textures);
+    }
+
+    /**
+     * Element transforms and uvs are computed once per variant, so they are only counted for the structure that
+     * used a variant first.
+     */
+    public JsonObject toJson() {
+        var phases = new JsonObject();
+        phases.addProperty("nbtDecode", millis(nbtDecodeNanos));
+        phases.addProperty("templateLoad", millis(templateLoadNanos));
+        phases.addProperty("occlusion", millis(occlusionNanos));
+        phases.addProperty("variantResolution", millis(variantResolutionNanos));
+        phases.addProperty("elementTransform", millis(elementTransformNanos));
+        phases.addProperty("uvComputation", millis(uvComputationNanos));
+        phases.addProperty("merge", millis(mergeNanos));
+        phases.addProperty("serialization", millis(serializationNanos));
+        phases.addProperty("atlas", millis(atlasNanos));
+        phases.addProperty("total", millis(totalNanos()));
+
+        var json = new JsonObject();
+        json.add("millis", phases);
+        json.addProperty("blocks", blocks);
+        json.addProperty("blocksWithoutModel", blocksWithoutModel);
+        json.addProperty("enclosedBlocks", enclosedBlocks);
+        json.addProperty("culledFaces", culledFaces);
+        json.addProperty("elementsBeforeMerge", elementsBeforeMerge);
+        json.addProperty("elements", elements);
+        json.addProperty("textures", textures.size());
+        json.addProperty("allocatedBytes", allocatedBytes);
+        json.addProperty("allocatedBytesPerBlock", blocks == 0 ? 0 : (double) allocatedBytes / blocks);
+        return json;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far or {@code -1} if the JVM does not track them
+     */
+    static long currentThreadAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private static double millis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,46 @@
+package gay.mona.model.converter;
+
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Optional passes of {@link ModelConverter}, everything is off by default.
+ *
+ * @param merge        merge adjacent full block elements with the same visible faces into larger elements
+ * @param precision    the maximum number of decimals in the output, {@code -1} writes floats unrounded
+ * @param cullInterior drop blocks that are fully enclosed by occluding blocks and can't be seen from outside, and
+ *                     the faces pointing into enclosed cavities
+ * @param lodLevels    the number of lower detail models written next to each model, each level halves the
+ *                     resolution of the previous one
+ * @param tileSize     split the structure into tiles of this many blocks per axis, converted at full size, or
+ *                     {@code 0} to scale the whole structure into one model
+ * @param allPalettes  convert every palette of a template instead of only the first one
+ * @param atlasPrefix  stitch the textures of each model into an atlas, referenced as this prefix followed by the
+ *                     path of the model in the output folder and {@code _atlas}, or {@code null} to reference the
+ *                     block textures directly
+ */
+public record ConverterOptions(boolean merge, int precision, boolean cullInterior, int lodLevels, int tileSize, boolean allPalettes, @Nullable String atlasPrefix) {
+    public static final ConverterOptions DEFAULT = new ConverterOptions(false, ModelWriter.FULL_PRECISION, false, 0, 0, false, null);
+    /**
+     * Elements may range from -16 to 32, which fits three blocks at full size.
+     */
+    public static final int MAX_TILE_SIZE = 3;
+
+    public ConverterOptions {
+        if (precision < ModelWriter.FULL_PRECISION) {
+            throw new IllegalArgumentException("precision must be -1 or at least 0, got " + precision);
+        }
+        if (lodLevels < 0 || lodLevels > 16) {
+            throw new IllegalArgumentException("lodLevels must be between 0 and 16, got " + lodLevels);
+        }
+        if (tileSize < 0 || tileSize > MAX_TILE_SIZE) {
+            throw new IllegalArgumentException("tileSize must be between 0 and " + MAX_TILE_SIZE + ", got " + tileSize);
+        }
+        if (tileSize > 0 && lodLevels > 0) {
+            throw new IllegalArgumentException("Tiles are always converted at full size and can't have LOD levels");
+        }
+        if (atlasPrefix != null && ResourceLocation.tryParse(atlasPrefix + "atlas") == null) {
+            throw new IllegalArgumentException("atlasPrefix must start a valid texture location, got " + atlasPrefix);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package gay.mona.model.converter;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Greedily merges adjacent unrotated full block elements into larger boxes.
+ * <p>
+ * Two elements are merged when their visible faces match in direction, uv, uv rotation and texture. An element is
+ * only grown along an axis if none of its visible faces point along that axis, the faces between merged blocks
+ * have to be culled already. The block model format cannot repeat a texture across a face, so the faces of a
+ * merged element stretch the uv of a single block over the whole box.
+ * <p>
+ * The merge state is keyed by the positions of the placed elements, so memory scales with the number of elements
+ * rather than the volume of the structure.
+ */
+final class ElementMerger {
+
+    private static final Object CONFLICT = new Object();
+
+    private ElementMerger() {
+    }
+
+    /**
+     * @param elements the placed elements in block order
+     * @param sizeX    the size of the structure on the x axis
+     * @param sizeY    the size of the structure on the y axis
+     * @param sizeZ    the size of the structure on the z axis
+     * @return the merged elements, still in block order of their lowest block
+     */
+    static List<PlacedElement> merge(List<PlacedElement> elements, int sizeX, int sizeY, int sizeZ) {
+        var keys = new Long2ObjectOpenHashMap<Object>();
+        for (var element : elements) {
+            if (!isFullBlock(element.element())) {
+                continue;
+            }
+            long index = index(element.pos().getX(), element.pos().getY(), element.pos().getZ(), sizeX, sizeY);
+            // a block with more than one full block element keeps all of them
+            var previous = keys.putIfAbsent(index, key(element));
+            if (previous != null) {
+                keys.put(index, CONFLICT);
+            }
+        }
+
+        var consumed = new LongOpenHashSet();
+        var merged = new ArrayList<PlacedElement>(elements.size());
+        for (var element : elements) {
+            var pos = element.pos();
+            long index = index(pos.getX(), pos.getY(), pos.getZ(), sizeX, sizeY);
+            if (!(keys.get(index) instanceof MergeKey key) || !isFullBlock(element.element())) {
+                merged.add(element);
+                continue;
+            }
+            if (consumed.contains(index)) {
+                continue;
+            }
+
+            int x = pos.getX();
+            int y = pos.getY();
+            int z = pos.getZ();
+            int endX = x + 1;
+            if (key.allows(Direction.Axis.X)) {
+                while (endX < sizeX && canMerge(keys, consumed, key, endX, endX + 1, y, y + 1, z, z + 1, sizeX, sizeY)) {
+                    endX++;
+                }
+            }
+            int endY = y + 1;
+            if (key.allows(Direction.Axis.Y)) {
+                while (endY < sizeY && canMerge(keys, consumed, key, x, endX, endY, endY + 1, z, z + 1, sizeX, sizeY)) {
+                    endY++;
+                }
+            }
+            int endZ = z + 1;
+            if (key.allows(Direction.Axis.Z)) {
+                while (endZ < sizeZ && canMerge(keys, consumed, key, x, endX, y, endY, endZ, endZ + 1, sizeX, sizeY)) {
+                    endZ++;
+                }
+            }
+
+            for (int mz = z; mz < endZ; mz++) {
+                for (int my = y; my < endY; my++) {
+                    for (int mx = x; mx < endX; mx++) {
+                        consumed.add(index(mx, my, mz, sizeX, sizeY));
+                    }
+                }
+            }
+            var size = new BlockPos(endX - x, endY - y, endZ - z);
+            merged.add(size.equals(PlacedElement.SINGLE_BLOCK) ? element : new PlacedElement(
+                    pos,
+                    size,
+                    element.variant(),
+                    element.element(),
+                    element.faceMask()
+            ));
+        }
+        return merged;
+    }
+
+    private static boolean canMerge(
+            Long2ObjectOpenHashMap<Object> keys,
+            LongOpenHashSet consumed,
+            MergeKey key,
+            int minX, int maxX,
+            int minY, int maxY,
+            int minZ, int maxZ,
+            int sizeX, int sizeY
+    ) {
+        for (int z = minZ; z < maxZ; z++) {
+            for (int y = minY; y < maxY; y++) {
+                for (int x = minX; x < maxX; x++) {
+                    long index = index(x, y, z, sizeX, sizeY);
+                    if (consumed.contains(index) || !key.equals(keys.get(index))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isFullBlock(BakedVariant.Element element) {
+        var from = element.from();
+        var to = element.to();
+        return element.rotation() == null
+                && from.x() == 0 && from.y() == 0 && from.z() == 0
+                && to.x() == 16 && to.y() == 16 && to.z() == 16;
+    }
+
+    private static MergeKey key(PlacedElement element) {
+        var faces = element.element().faces();
+        var visible = new ArrayList<FaceKey>(faces.size());
+        for (int i = 0; i < faces.size(); i++) {
+            if ((element.faceMask() & (1 << i)) == 0) {
+                continue;
+            }
+            var face = faces.get(i);
+            var uv = face.uv();
+            visible.add(new FaceKey(face.direction(), uv[0], uv[1], uv[2], uv[3], face.rotation(), face.texture()));
+        }
+        return new MergeKey(List.copyOf(visible));
+    }
+
+    private static long index(int x, int y, int z, int sizeX, int sizeY) {
+        return x + (long) sizeX * (y + (long) sizeY * z);
+    }
+
+    private record MergeKey(List<FaceKey> faces) {
+        boolean allows(Direction.Axis axis) {
+            for (var face : faces) {
+                if (face.direction().getAxis() == axis) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private record FaceKey(
+            Direction direction,
+            float minU,
+            float minV,
+            float maxU,
+            float maxV,
+            int rotation,
+            @Nullable ResourceLocation texture
+    ) {
+    }
+}
@@ -0,0 +1,149 @@
+package gay.mona.model.converter;
+
+import com.google.common.base.Stopwatch;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the input tree and hands changed structure files to a {@link ConversionPipeline}, so the bootstrapped
+ * converter stays warm between edits.
+ * <p>
+ * Events are collected until no new ones arrive for {@code debounceMillis}, which turns the bursts of events an
+ * editor or game produces for a single save into one conversion. Outputs of deleted inputs are removed and the
+ * manifest is saved after every batch.
+ */
+public class InputWatcher implements AutoCloseable {
+
+    private final Path inputPath;
+    private final ConversionPipeline pipeline;
+    private final long debounceMillis;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    public InputWatcher(Path inputPath, ConversionPipeline pipeline, long debounceMillis) throws IOException {
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("debounceMillis must not be negative, got " + debounceMillis);
+        }
+        this.inputPath = inputPath;
+        this.pipeline = pipeline;
+        this.debounceMillis = debounceMillis;
+        this.watchService = inputPath.getFileSystem().newWatchService();
+        registerAll(inputPath);
+    }
+
+    /**
+     * Converts changes until the thread is interrupted or the watcher is closed.
+     */
+    public void run() throws IOException {
+        System.out.println("Watching " + inputPath + " for changes");
+        try {
+            while (true) {
+                // true for changed files, false for deleted ones, the last event of a file wins
+                var changes = new LinkedHashMap<Path, Boolean>();
+                var key = watchService.take();
+                boolean overflow = false;
+                do {
+                    overflow |= collect(key, changes);
+                    key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                if (overflow) {
+                    changes.clear();
+                    System.out.println("Missed some changes, checking every input");
+                    try (var stream = Files.walk(inputPath)) {
+                        stream.filter(InputWatcher::isStructure).forEach(file -> changes.put(file, true));
+                    }
+                }
+                convert(changes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+        }
+    }
+
+    /**
+     * @return whether events were lost
+     */
+    private boolean collect(WatchKey key, Map<Path, Boolean> changes) throws IOException {
+        var directory = directories.get(key);
+        boolean overflow = false;
+        for (var event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            var path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // files copied in with the directory may be there before it is registered
+                registerAll(path);
+                try (var stream = Files.walk(path)) {
+                    stream.filter(InputWatcher::isStructure).forEach(file -> changes.put(file, true));
+                }
+            } else if (path.getFileName().toString().endsWith(".nbt")) {
+                changes.put(path, event.kind() != StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    private void convert(Map<Path, Boolean> changes) throws IOException, InterruptedException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        var stopwatch = Stopwatch.createStarted();
+        int convertedBefore = pipeline.converted();
+        int failedBefore = pipeline.failed();
+        int removed = 0;
+        for (var change : changes.entrySet()) {
+            var file = change.getKey();
+            if (change.getValue() && Files.isRegularFile(file)) {
+                pipeline.submit(file);
+            } else if (!Files.exists(file)) {
+                pipeline.remove(file);
+                removed++;
+            }
+        }
+        pipeline.awaitCompletion();
+        pipeline.saveManifest();
+        System.out.println("Converted " + (pipeline.converted() - convertedBefore) + " changed structures, "
+                + removed + " removed, " + (pipeline.failed() - failedBefore) + " failed in " + stopwatch);
+    }
+
+    private void registerAll(Path root) throws IOException {
+        try (var stream = Files.walk(root)) {
+            for (var directory : (Iterable<Path>) stream.filter(Files::isDirectory)::iterator) {
+                var key = directory.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                directories.put(key, directory);
+            }
+        }
+    }
+
+    private static boolean isStructure(Path file) {
+        return file.getFileName().toString().endsWith(".nbt") && Files.isRegularFile(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
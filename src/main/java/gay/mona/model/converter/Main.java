@@ -1,22 +1,18 @@
 package gay.mona.model.converter;
 
+import com.google.common.base.Stopwatch;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import net.minecraft.SharedConstants;
 import net.minecraft.client.ClientBootstrap;
-import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.data.DataGenerator;
-import net.minecraft.nbt.NbtAccounter;
-import net.minecraft.nbt.NbtIo;
 import net.minecraft.server.Bootstrap;
-import net.minecraft.world.level.levelgen.structure.templatesystem.StructureTemplate;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
     public static Path assetsDirectory;
@@ -31,36 +27,93 @@ public class Main {
         var input = optionparser.accepts("input", "Input folder").withRequiredArg().defaultsTo("input");
         var assetDirectory = optionparser.accepts("assetsDir", "Assets Directory").withRequiredArg();
         var assetIndex  = optionparser.accepts("assetIndex", "").withRequiredArg().ofType(Integer.class);
+        var threads = optionparser.accepts("threads", "Number of conversion threads").withRequiredArg().ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        var merge = optionparser.accepts("merge", "Merge adjacent full blocks with matching faces into larger elements, textures are stretched across merged faces");
+        var precision = optionparser.accepts("precision", "Maximum number of decimals written, unrounded by default").withRequiredArg().ofType(Integer.class).defaultsTo(-1);
+        var cullInterior = optionparser.accepts("cullInterior", "Leave out blocks and faces that are fully enclosed by solid blocks and can't be seen from outside, walks the whole bounding box so it costs time and memory by volume even for sparse structures");
+        var lod = optionparser.accepts("lod", "Number of lower detail models written next to each model as <name>_lod<level>.json, each level halves the resolution").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        var tileSize = optionparser.accepts("tileSize", "Split structures into full size tiles of this many blocks (1 to 3) with an index of their offsets, instead of scaling them into one model").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        var allPalettes = optionparser.accepts("allPalettes", "Convert every palette of a structure, palettes after the first are written as <name>_palette<index>.json");
+        var atlas = optionparser.accepts("atlas", "Stitch the textures of each model into an atlas referenced as this prefix followed by the lower cased model path and _atlas, written to assets/<namespace>/textures/ in the output folder or zip").withOptionalArg().defaultsTo("block/");
+        var bootstrapThreads = optionparser.accepts("bootstrapThreads", "Number of threads loading the vanilla models").withRequiredArg().ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        var cache = optionparser.accepts("cache", "Folder for the bootstrap snapshot").withRequiredArg().defaultsTo("cache");
+        var noSnapshot = optionparser.accepts("noSnapshot", "Always load the vanilla models instead of using the bootstrap snapshot");
+        var lazy = optionparser.accepts("lazy", "Only load the blockstates and models the inputs use instead of every vanilla model, without a bootstrap snapshot");
+        var force = optionparser.accepts("force", "Ignore the manifest in the output folder and convert every input");
+        var watch = optionparser.accepts("watch", "Keep running after the conversion and convert inputs again when they change");
+        var debounce = optionparser.accepts("debounce", "Milliseconds without changes before a watched change is converted").withRequiredArg().ofType(Long.class).defaultsTo(100L);
+        var zip = optionparser.accepts("zip", "Write the models into this resource pack zip instead of the output folder, always converts every input").withRequiredArg();
+        var packFormat = optionparser.accepts("packFormat", "Resource pack format written to the pack.mcmeta of the zip").withRequiredArg().ofType(Integer.class).defaultsTo(ResourcePackZip.DEFAULT_PACK_FORMAT);
+        var packDescription = optionparser.accepts("packDescription", "Description written to the pack.mcmeta of the zip").withRequiredArg().defaultsTo("Converted structure models");
+        var commitFailed = optionparser.accepts("commitFailed", "Replace the zip even if inputs failed to convert, they are left out of the pack");
+        var report = optionparser.accepts("report", "Write the per structure counters and phase timings to this JSON file").withRequiredArg();
         OptionSet optionset = optionparser.parse(args);
 
-        if (!optionset.has(help)) {
+        if (optionset.has(zip) && optionset.has(watch)) {
+            System.out.println("--watch can't be combined with --zip");
+        } else if (!optionset.has(help)) {
             Path outputPath = Path.of(optionset.valueOf(output));
             Path inputPath = Path.of(optionset.valueOf(input));
             assetsDirectory = Path.of(optionset.valueOf(assetDirectory));
             assetVersion = optionset.valueOf(assetIndex);
+            var stopwatch = Stopwatch.createStarted();
             Bootstrap.bootStrap();
             ClientBootstrap.bootstrap();
-            ModelConverter.bootstrap();
+            System.out.println("Bootstrapped registries in " + stopwatch);
+
+            // inputs are read while the models load, conversions start once they are done
+            CompletableFuture<Void> bootstrap;
+            if (optionset.has(lazy)) {
+                ModelConverter.bootstrapLazy();
+                bootstrap = CompletableFuture.completedFuture(null);
+            } else {
+                var bootstrapExecutor = new ForkJoinPool(optionset.valueOf(bootstrapThreads));
+                var snapshotFile = optionset.has(noSnapshot) ? null : Path.of(optionset.valueOf(cache)).resolve("bootstrap-" + assetVersion + ".bin");
+                bootstrap = ModelConverter.bootstrap(snapshotFile, bootstrapExecutor).whenComplete((ignored, throwable) -> {
+                    bootstrapExecutor.shutdown();
+                    System.out.println("Finished bootstrapping models after " + stopwatch);
+                });
+            }
             DataGenerator dataGenerator = new DataGenerator(outputPath.resolve("_"), SharedConstants.getCurrentVersion(), true);
-            try (var stream = Files.walk(inputPath)) {
-                stream.filter(path -> path.getFileName().toString().endsWith(".nbt")).map(path -> {
-                    try {
-                        var structure = new StructureTemplate();
-                        structure.load(BuiltInRegistries.BLOCK, Objects.requireNonNull(NbtIo.readCompressed(path, NbtAccounter.unlimitedHeap())));
-                        return new Context(inputPath.relativize(path), structure);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
+            var options = new ConverterOptions(optionset.has(merge), optionset.valueOf(precision), optionset.has(cullInterior), optionset.valueOf(lod), optionset.valueOf(tileSize), optionset.has(allPalettes), optionset.has(atlas) ? optionset.valueOf(atlas) : null);
+            // a zip is written from scratch every time, so there is nothing to skip
+            var manifest = optionset.has(zip) ? null : optionset.has(force) ? ConversionManifest.empty(outputPath) : ConversionManifest.load(outputPath);
+            try (var resourcePack = optionset.has(zip) ? new ResourcePackZip(Path.of(optionset.valueOf(zip)), optionset.valueOf(packFormat), optionset.valueOf(packDescription)) : null;
+                 var pipeline = new ConversionPipeline(inputPath, outputPath, optionset.valueOf(threads), options, manifest, bootstrap, resourcePack);
+                 // registered before the walk, so changes made during the first conversion are picked up afterwards
+                 var watcher = optionset.has(watch) ? new InputWatcher(inputPath, pipeline, optionset.valueOf(debounce)) : null;
+                 var stream = Files.walk(inputPath)) {
+                for (var path : (Iterable<Path>) stream.filter(file -> file.getFileName().toString().endsWith(".nbt"))::iterator) {
+                    pipeline.submit(path);
+                }
+                pipeline.awaitCompletion();
+                bootstrap.join();
+                if (resourcePack != null) {
+                    if (pipeline.failed() == 0 || optionset.has(commitFailed)) {
+                        resourcePack.commit();
+                    } else {
+                        System.out.println("Kept the previous " + optionset.valueOf(zip) + " because " + pipeline.failed() + " structures failed, use --commitFailed to replace it anyway");
                     }
-                }).forEach(context -> {
-                    var model =  ModelConverter.convertBlocksToJsonModel(context.template);
-                    var outputFile = outputPath.resolve(context.fileName).resolveSibling(context.fileName.getFileName().toString().replace(".nbt", ".json"));
-                    try {
-                        Files.createDirectories(outputFile.getParent());
-                        Files.writeString(outputFile, model.toString(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                });
+                }
+                pipeline.removeDeletedInputs();
+                System.out.println("Finished converting after " + stopwatch);
+                System.out.println("Converted " + pipeline.converted() + " structures, " + pipeline.skipped() + " unchanged, " + pipeline.failed() + " failed");
+                if (options.merge()) {
+                    System.out.println("Merged " + pipeline.elementsBeforeMerge() + " elements into " + pipeline.elements());
+                }
+                System.out.println("Resolved model cache: " + ModelConverter.resolvedModelHits() + " hits, " + ModelConverter.resolvedModelMisses() + " misses");
+                if (ModelConverter.unsupportedStates() > 0) {
+                    System.out.println("Skipped " + ModelConverter.unsupportedStates() + " block states with an unsupported blockstate model");
+                }
+                if (optionset.has(report)) {
+                    var reportFile = Path.of(optionset.valueOf(report));
+                    pipeline.writeReport(reportFile);
+                    System.out.println("Wrote report to " + reportFile);
+                }
+                if (watcher != null) {
+                    pipeline.saveManifest();
+                    watcher.run();
+                }
             } catch (Exception e) {
                 e.printStackTrace(System.out);
             }
@@ -69,6 +122,4 @@ public class Main {
             optionparser.printHelpOn(System.out);
         }
     }
-
-    record Context(Path fileName, StructureTemplate template) {}
 }
@@ -1,9 +1,13 @@
 package gay.mona.model.converter;
 
-import com.google.gson.JsonArray;
+import com.google.common.base.Stopwatch;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 import com.mojang.math.MatrixUtil;
 import com.mojang.math.Transformation;
+import com.mojang.serialization.JsonOps;
 import net.minecraft.client.renderer.block.model.*;
 import net.minecraft.client.renderer.block.model.multipart.MultiPartModel;
 import net.minecraft.client.resources.ClientPackSource;
@@ -11,17 +15,20 @@ import net.minecraft.client.resources.model.*;
 import net.minecraft.core.BlockMath;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.PackType;
 import net.minecraft.server.packs.repository.PackRepository;
 import net.minecraft.server.packs.resources.MultiPackResourceManager;
+import net.minecraft.server.packs.resources.ResourceManager;
 import net.minecraft.util.Mth;
 import net.minecraft.util.RandomSource;
-import net.minecraft.util.random.WeightedList;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Mirror;
 import net.minecraft.world.level.block.RenderShape;
 import net.minecraft.world.level.block.Rotation;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
 import net.minecraft.world.level.levelgen.structure.templatesystem.StructureTemplate;
 import net.minecraft.world.level.validation.DirectoryValidator;
 import org.jetbrains.annotations.NotNull;
@@ -29,39 +36,157 @@ import org.jetbrains.annotations.Nullable;
 import org.joml.Matrix3f;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
+import org.joml.Vector3fc;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 public class ModelConverter {
+    /**
+     * Bump whenever the generated models change, outputs of older versions are converted again.
+     */
+    public static final int VERSION = 1;
 
     //private static ClientItemInfoLoader.LoadedClientInfos loadedClientInfos;
-    private static final Direction[] DIRECTIONS = Direction.values();
     private static Map<ResourceLocation, UnbakedModel> blockModels;
     private static BlockStateModelLoader.LoadedModels loadedModels;
-    private static boolean isBootstrapped = false;
+    /**
+     * Set in lazy mode, blockstates and models are loaded from it when they are first used.
+     */
+    @Nullable
+    private static ResourceManager lazyResources;
+    private static final Map<Block, Map<BlockState, BlockStateModel.UnbakedRoot>> lazyBlockStates = new ConcurrentHashMap<>();
+    private static final Map<ResourceLocation, UnbakedModel> lazyBlockModels = new ConcurrentHashMap<>();
+    static final Vector3fc ROTATION_PIVOT = new Vector3f(8f, 8f, 8f);
+    private static final Map<ResourceLocation, ResolvedBlockModel> resolvedModels = new ConcurrentHashMap<>();
+    private static final Map<Variant, BakedVariant> bakedVariants = new ConcurrentHashMap<>();
+    private static final Map<BlockState, StateGeometry> stateGeometries = new ConcurrentHashMap<>();
+    private static final LongAdder resolvedModelHits = new LongAdder();
+    private static final LongAdder resolvedModelMisses = new LongAdder();
+    private static final LongAdder unsupportedStates = new LongAdder();
+    /**
+     * The stats of the conversion running on the current thread, variants baked during it are timed into them.
+     */
+    private static final ThreadLocal<ConversionStats> currentStats = new ThreadLocal<>();
+    @Nullable
+    private static BootstrapSnapshot snapshot;
+    private static volatile boolean isBootstrapped = false;
 
     public static void bootstrap() {
+        bootstrap(null);
+    }
+
+    public static void bootstrap(@Nullable Path snapshotFile) {
+        bootstrap(snapshotFile, ForkJoinPool.commonPool()).join();
+    }
+
+    /**
+     * Loads the vanilla block models and blockstates, both loads run at the same time on {@code executor}.
+     *
+     * @param snapshotFile a {@link BootstrapSnapshot} to load instead if it matches the current game and assets,
+     *                     it is (re)written after loading otherwise, or {@code null} to always load the models
+     * @return a future that completes once conversions can run
+     */
+    public static CompletableFuture<Void> bootstrap(@Nullable Path snapshotFile, Executor executor) {
+        if (isBootstrapped) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        BootstrapSnapshot.Key snapshotKey = null;
+        if (snapshotFile != null) {
+            var stopwatch = Stopwatch.createStarted();
+            try {
+                snapshotKey = BootstrapSnapshot.Key.current();
+                snapshot = BootstrapSnapshot.open(snapshotFile, snapshotKey);
+            } catch (IOException e) {
+                System.out.println("Not using a bootstrap snapshot: " + e);
+            }
+            if (snapshot != null) {
+                System.out.println("Opened bootstrap snapshot in " + stopwatch);
+                isBootstrapped = true;
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+
+        var resourceManager = createResourceManager();
+        var stopwatch = Stopwatch.createStarted();
+        var blockModelsFuture = ModelManager.loadBlockModels(resourceManager, executor).thenApply(models -> {
+            System.out.println("Loaded " + models.size() + " block models in " + stopwatch);
+            return models;
+        });
+        var blockStatesFuture = BlockStateModelLoader.loadBlockStates(resourceManager, executor).thenApply(states -> {
+            System.out.println("Loaded " + states.models().size() + " blockstates in " + stopwatch);
+            return states;
+        });
+        //loadedClientInfos = ClientItemInfoLoader.scheduleLoad(resourceManager, executor).join();
+        var finalSnapshotKey = snapshotKey;
+        return blockModelsFuture.thenAcceptBoth(blockStatesFuture, (models, states) -> {
+            blockModels = models;
+            loadedModels = states;
+            isBootstrapped = true;
+
+            if (finalSnapshotKey != null) {
+                var snapshotStopwatch = Stopwatch.createStarted();
+                try {
+                    BootstrapSnapshot.write(snapshotFile, finalSnapshotKey);
+                    System.out.println("Wrote bootstrap snapshot in " + snapshotStopwatch);
+                } catch (IOException e) {
+                    System.out.println("Failed to write bootstrap snapshot " + snapshotFile + ": " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Bootstraps without loading anything, blockstates and models are loaded from the vanilla pack the first time a
+     * state is converted or {@link #preload(StructureTemplate) preloaded}. Only the models a job uses are ever
+     * loaded, which saves memory and startup time for small jobs.
+     */
+    public static void bootstrapLazy() {
         if (isBootstrapped) {
             return;
         }
+        lazyResources = createResourceManager();
+        isBootstrapped = true;
+    }
 
-        var executor = CompletableFuture.delayedExecutor(0, TimeUnit.SECONDS);
+    public static boolean isLazy() {
+        return lazyResources != null;
+    }
+
+    static ResourceManager createResourceManager() {
         var directoryValidator = new DirectoryValidator((path) -> false);
         var clientPack = new ClientPackSource(Main.assetsDirectory, directoryValidator);
         var packRepository = new PackRepository(clientPack);
         packRepository.setSelected(packRepository.getAvailableIds());
         var vanilla = ClientPackSource.createVanillaPackSource(Main.assetsDirectory);
-        var resourceManager = new MultiPackResourceManager(PackType.CLIENT_RESOURCES, List.of(vanilla));
-        blockModels = ModelManager.loadBlockModels(resourceManager, executor).join();
-        loadedModels = BlockStateModelLoader.loadBlockStates(resourceManager, executor).join();
-        //loadedClientInfos = ClientItemInfoLoader.scheduleLoad(resourceManager, executor).join();
-        isBootstrapped = true;
+        return new MultiPackResourceManager(PackType.CLIENT_RESOURCES, List.of(vanilla));
+    }
+
+    /**
+     * Loads and bakes the geometry of every state in the palettes of the template, so conversions find it cached.
+     */
+    public static void preload(StructureTemplate template) {
+        assertBootstrapped();
+        template.palettes.stream()
+                .flatMap(palette -> palette.blocks().stream())
+                .map(StructureTemplate.StructureBlockInfo::state)
+                .distinct()
+                .forEach(ModelConverter::geometry);
     }
 
     public static void assertBootstrapped() {
@@ -72,285 +197,493 @@ public class ModelConverter {
 
 
     public static JsonObject convertBlocksToJsonModel(StructureTemplate template) {
+        return convertBlocksToJsonModel(template, ConverterOptions.DEFAULT, new ConversionStats());
+    }
+
+    public static JsonObject convertBlocksToJsonModel(StructureTemplate template, ConverterOptions options, ConversionStats stats) {
+        var model = new StringWriter();
+        try (var json = new JsonWriter(model)) {
+            convert(template, options, stats, json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return JsonParser.parseString(model.toString()).getAsJsonObject();
+    }
+
+    /**
+     * Converts the template and streams the model to {@code json}. Without merging, every element is written as
+     * soon as it is placed.
+     */
+    public static void convert(StructureTemplate template, ConverterOptions options, ConversionStats stats, JsonWriter json) throws IOException {
         assertBootstrapped();
-        JsonObject jsonObject = new JsonObject();
-        BlockPos.MutableBlockPos neighborPosition = new BlockPos.MutableBlockPos();
+        long start = System.nanoTime();
+        var grid = grid(template, 0);
+        if (options.cullInterior()) {
+            stats.enclosedBlocks = grid.removeEnclosed();
+        }
+        stats.occlusionNanos += System.nanoTime() - start;
+        convert(grid, grid.bounds(), Layout.of(template), options, stats, json, null);
+    }
 
-        JsonArray elements = new JsonArray();
-        Map<ResourceLocation, String> textureReferences = new HashMap<>();
+    /**
+     * Builds the voxel grid of a palette of the template.
+     */
+    static VoxelGrid grid(StructureTemplate template, int palette) {
         var boundingBox = template.getBoundingBox(BlockPos.ZERO, Rotation.NONE, BlockPos.ZERO, Mirror.NONE);
-        var max = new BlockPos(boundingBox.maxX(), boundingBox.maxY(), boundingBox.maxZ());
-        var min = new BlockPos(boundingBox.minX(), boundingBox.minY(), boundingBox.minZ());
-        float scaleX = 1.0F / (float) (max.getX() + 1 - min.getX());
-        float scaleY = 1.0F / (float) (max.getY() + 1 - min.getY());
-        float scaleZ = 1.0F / (float) (max.getZ() + 1 - min.getZ());
-        float globalScale = Math.min(scaleX, Math.min(scaleY, scaleZ));
-        float centeringX = 8.0F - (float) (max.getX() + 1 + min.getX()) * globalScale * 8.0F;
-        float centeringY = 8.0F - (float) (max.getY() + 1 + min.getY()) * globalScale * 8.0F;
-        float centeringZ = 8.0F - (float) (max.getZ() + 1 + min.getZ()) * globalScale * 8.0F;
-        var centeringVec = new Vector3f(centeringX, centeringY, centeringZ);
-
-        var pallet = template.palettes.getFirst();
-        var blockInfoMatrix = new StructureTemplate.StructureBlockInfo[max.getX() + 1][max.getY() + 1][max.getZ() + 1];
-        for (var block : pallet.blocks()) {
-            var pos = block.pos();
-            blockInfoMatrix[pos.getX()][pos.getY()][pos.getZ()] = block;
-        }
-
-        for (var blockPos : BlockPos.betweenClosed(0, 0, 0, max.getX(), max.getY(), max.getZ())) {
-            var blockInfo = blockInfoMatrix[blockPos.getX()][blockPos.getY()][blockPos.getZ()];
-            if (blockInfo == null) {
-                continue;
+        var pallet = template.palettes.get(palette);
+        return VoxelGrid.of(pallet.blocks(), boundingBox.maxX() + 1, boundingBox.maxY() + 1, boundingBox.maxZ() + 1);
+    }
+
+    /**
+     * Converts the blocks of a voxel grid inside {@code region} and streams the model to {@code json}. Block
+     * positions are relative to the region, faces are still culled against blocks outside of it.
+     * <p>
+     * Interior culling is up to the caller, the grid is only read so regions of a grid can be converted in parallel.
+     *
+     * @param atlas the atlas faces with a texture in it reference instead, see {@link #textures(VoxelGrid, BoundingBox)},
+     *              or {@code null} to reference every texture directly
+     */
+    static void convert(VoxelGrid grid, BoundingBox region, Layout layout, ConverterOptions options, ConversionStats stats, JsonWriter json, @Nullable TextureAtlas atlas) throws IOException {
+        assertBootstrapped();
+        long allocatedBefore = ConversionStats.currentThreadAllocatedBytes();
+        var writer = new ModelWriter(json, options.precision(), layout.globalScale(), layout.centeringVec(), atlas);
+        writer.begin();
+
+        currentStats.set(stats);
+        try {
+            if (options.merge()) {
+                var unmergedElements = new ArrayList<PlacedElement>();
+                placeElements(grid, region, stats, (x, y, z, variant, element, faceMask) -> unmergedElements.add(
+                        new PlacedElement(new BlockPos(x, y, z), PlacedElement.SINGLE_BLOCK, variant, element, faceMask)));
+                stats.elementsBeforeMerge = unmergedElements.size();
+                long start = System.nanoTime();
+                var placedElements = ElementMerger.merge(unmergedElements, region.getXSpan(), region.getYSpan(), region.getZSpan());
+                stats.mergeNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                for (var placed : placedElements) {
+                    writer.write(placed);
+                }
+                stats.serializationNanos += System.nanoTime() - start;
+                stats.elements = placedElements.size();
+            } else {
+                placeElements(grid, region, stats, (x, y, z, variant, element, faceMask) -> {
+                    long writeStart = System.nanoTime();
+                    stats.elementsBeforeMerge++;
+                    writer.write(x, y, z, variant, element, faceMask);
+                    stats.serializationNanos += System.nanoTime() - writeStart;
+                });
+                stats.elements = stats.elementsBeforeMerge;
             }
-            var blockPosVector = new Vector3f(blockPos.getX(), blockPos.getY(), blockPos.getZ());
-            var state = blockInfo.state();
+        } finally {
+            currentStats.remove();
+        }
+        long start = System.nanoTime();
+        writer.end();
+        stats.serializationNanos += System.nanoTime() - start;
+        stats.textures.addAll(writer.textures());
+        if (allocatedBefore >= 0) {
+            stats.allocatedBytes += ConversionStats.currentThreadAllocatedBytes() - allocatedBefore;
+        }
+    }
 
+    /**
+     * Collects the textures the blocks inside {@code region} may use, before any element is placed. Weighted
+     * variants contribute all of their textures, so this can include textures the model ends up not using.
+     */
+    static Set<ResourceLocation> textures(VoxelGrid grid, BoundingBox region) {
+        var states = new HashSet<BlockState>();
+        grid.forEach(region, (x, y, z, state, occlusionMask) -> {
             if (!state.isAir() && state.getRenderShape() != RenderShape.INVISIBLE) {
-                var culledDirections = new ArrayList<Direction>();
-                for (Direction direction : DIRECTIONS) {
-                    neighborPosition.setWithOffset(blockPos, direction);
-                    var neighbour = getPos(blockInfoMatrix, neighborPosition);
-                    if (neighbour == null || Block.shouldRenderFace(state, neighbour.state(), direction)) {
-                        continue;
-                    }
-                    culledDirections.add(direction);
-                }
+                states.add(state);
+            }
+        });
+        var textures = new HashSet<ResourceLocation>();
+        for (var state : states) {
+            geometry(state).collectTextures(textures);
+        }
+        return textures;
+    }
 
-                var randomSource = RandomSource.create(blockPos.asLong());
-                BlockStateModel.UnbakedRoot models = loadedModels.models().get(state);
-                List<SingleVariant.Unbaked> unbaked = new ArrayList<>();
-                switch (models) {
-                    case BlockStateModel.SimpleCachedUnbakedRoot simple ->
-                            resolveVariants(simple.contents, unbaked, randomSource);
-                    case MultiPartModel.Unbaked multiPart -> multiPart.selectors.stream()
-                            .filter(selector -> selector.condition().test(state))
-                            .map(MultiPartModel.Selector::model)
-                            .forEach(part -> resolveVariants(part, unbaked, randomSource));
-                    default -> {
-                        System.out.println(models);
-                        continue;
-                    }
-                }
+    /**
+     * Where blocks end up in the model: block coordinates times 16 are scaled by {@code globalScale}, then moved by
+     * {@code centeringVec}.
+     */
+    record Layout(float globalScale, Vector3fc centeringVec) {
+
+        /**
+         * Scales the structure down to fit into a single block and centers it.
+         */
+        static Layout of(StructureTemplate template) {
+            var boundingBox = template.getBoundingBox(BlockPos.ZERO, Rotation.NONE, BlockPos.ZERO, Mirror.NONE);
+            var max = new BlockPos(boundingBox.maxX(), boundingBox.maxY(), boundingBox.maxZ());
+            var min = new BlockPos(boundingBox.minX(), boundingBox.minY(), boundingBox.minZ());
+            float scaleX = 1.0F / (float) (max.getX() + 1 - min.getX());
+            float scaleY = 1.0F / (float) (max.getY() + 1 - min.getY());
+            float scaleZ = 1.0F / (float) (max.getZ() + 1 - min.getZ());
+            float globalScale = Math.min(scaleX, Math.min(scaleY, scaleZ));
+            float centeringX = 8.0F - (float) (max.getX() + 1 + min.getX()) * globalScale * 8.0F;
+            float centeringY = 8.0F - (float) (max.getY() + 1 + min.getY()) * globalScale * 8.0F;
+            float centeringZ = 8.0F - (float) (max.getZ() + 1 + min.getZ()) * globalScale * 8.0F;
+            return new Layout(globalScale, new Vector3f(centeringX, centeringY, centeringZ));
+        }
 
-                for (var unbakedVariant : unbaked) {
-                    var variant = unbakedVariant.variant();
-                    var modelState = variant.modelState();
-                    var model = resolve(blockModels, variant.modelLocation());
+        /**
+         * @return the layout of a grid downsampled {@code level} times by {@link VoxelGrid#downsample()}, its blocks
+         * cover the same space as the blocks they were picked from
+         */
+        Layout lod(int level) {
+            return new Layout(globalScale * (1 << level), centeringVec);
+        }
 
-                    var geometry = model.simpleGeometry();
-                    if (geometry == null) {
-                        continue;
-                    }
+        /**
+         * Keeps blocks at full size and moves the first {@link #tileMargin(int)} blocks of a tile below 0, so a
+         * tile of up to 3 blocks stays within the -16 to 32 element bounds.
+         */
+        static Layout tile(int tileSize) {
+            float offset = -16f * tileMargin(tileSize);
+            return new Layout(1, new Vector3f(offset, offset, offset));
+        }
 
-                    var blockModelState = modelState.asModelState();
-                    for (var element : geometry.elements()) {
-                        var transformMatrix = blockModelState.transformation().getMatrix();
-                        Vector3f fromCopy = new Vector3f(element.from());
-                        Vector3f toCopy = new Vector3f(element.to());
-                        Vector3f transPivot = new Vector3f(8f, 8f, 8f);
-                        fromCopy.sub(transPivot);
-                        toCopy.sub(transPivot);
-                        transformMatrix.transformPosition(fromCopy);
-                        transformMatrix.transformPosition(toCopy);
-                        fromCopy.add(transPivot);
-                        toCopy.add(transPivot);
-
-                        if (fromCopy.x > toCopy.x != element.from().x() > element.to().x()) {
-                            float temp = fromCopy.x;
-                            fromCopy.x = toCopy.x;
-                            toCopy.x = temp;
-                        }
+        /**
+         * @return the number of blocks a tile model extends below the block it is placed at
+         */
+        static int tileMargin(int tileSize) {
+            return (tileSize - 1) / 2;
+        }
+    }
 
-                        if (fromCopy.y > toCopy.y != element.from().y() > element.to().y()) {
-                            float temp = fromCopy.y;
-                            fromCopy.y = toCopy.y;
-                            toCopy.y = temp;
-                        }
+    /**
+     * Places the baked elements of every visible block in the grid and passes those with at least one unculled
+     * face to {@code sink}, in block order.
+     * <p>
+     * Time spent in {@code sink} or baking variants is not counted as variant resolution.
+     */
+    static void placeElements(VoxelGrid grid, ConversionStats stats, ElementSink sink) throws IOException {
+        placeElements(grid, grid.bounds(), stats, sink);
+    }
 
-                        if (fromCopy.z > toCopy.z != element.from().z() > element.to().z()) {
-                            float temp = fromCopy.z;
-                            fromCopy.z = toCopy.z;
-                            toCopy.z = temp;
-                        }
+    /**
+     * Like {@link #placeElements(VoxelGrid, ConversionStats, ElementSink)}, but only for the blocks inside
+     * {@code region}, placed relative to its minimum corner.
+     * <p>
+     * Nothing is allocated per block, weighted variants are picked into a list and random reused for the whole call.
+     */
+    static void placeElements(VoxelGrid grid, BoundingBox region, ConversionStats stats, ElementSink sink) throws IOException {
+        long start = System.nanoTime();
+        long excludedBefore = stats.serializationNanos + stats.elementTransformNanos + stats.uvComputationNanos;
+        var random = RandomSource.create(0);
+        var picked = new ArrayList<BakedVariant>();
+        try {
+            grid.forEach(region, (x, y, z, state, occlusionMask) -> {
+                if (state.isAir() || state.getRenderShape() == RenderShape.INVISIBLE) {
+                    return;
+                }
+                stats.blocks++;
 
-                        var elementObject = new JsonObject();
-                        var scaledBlockPos = blockPosVector.mul(16, new Vector3f());
-                        var finalFrom = fromCopy.add(scaledBlockPos, new Vector3f()).mul(globalScale).add(centeringVec);
-                        var from = serialize(finalFrom);
-                        var finalTo = toCopy.add(scaledBlockPos, new Vector3f()).mul(globalScale).add(centeringVec);
-                        var to = serialize(finalTo);
-
-                        elementObject.add("from", from);
-                        elementObject.add("to", to);
-                        if (element.rotation() != null) {
-                            var rotation = element.rotation();
-                            var rotationDirection = Direction.get(Direction.AxisDirection.POSITIVE, rotation.axis());
-                            var actualRotationDirection = Direction.rotate(transformMatrix, rotationDirection);
-                            final BlockElementRotation actualRotation;
-                            if (rotationDirection == actualRotationDirection) {
-                                actualRotation = rotation;
+                var variants = geometry(state).variants(BlockPos.asLong(x, y, z), random, picked);
+                if (variants.isEmpty()) {
+                    stats.blocksWithoutModel++;
+                }
+                for (var variant : variants) {
+                    for (var element : variant.elements()) {
+                        int faceMask = 0;
+                        var faces = element.faces();
+                        for (int i = 0; i < faces.size(); i++) {
+                            var cullFace = faces.get(i).cullFace();
+                            if (cullFace == null || (occlusionMask & 1 << cullFace.get3DDataValue()) == 0) {
+                                faceMask |= 1 << i;
                             } else {
-                                actualRotation = new BlockElementRotation(
-                                        rotation.origin(),
-                                        rotationDirection.getAxis(),
-                                        rotation.angle(),
-                                        rotation.rescale());
+                                stats.culledFaces++;
                             }
+                        }
+                        if (faceMask == 0) {
+                            continue;
+                        }
+                        try {
+                            sink.accept(x - region.minX(), y - region.minY(), z - region.minZ(), variant, element, faceMask);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            long excluded = stats.serializationNanos + stats.elementTransformNanos + stats.uvComputationNanos - excludedBefore;
+            stats.variantResolutionNanos += System.nanoTime() - start - excluded;
+        }
+    }
 
-                            var rotationObject = new JsonObject();
-                            var origin = actualRotation.origin()
-                                    .add(scaledBlockPos, new Vector3f())
-                                    .add(transPivot)
-                                    .mul(globalScale)
-                                    .add(centeringVec);
-                            rotationObject.add("origin", serialize(origin));
-                            rotationObject.addProperty("axis", actualRotation.axis().getSerializedName());
-                            rotationObject.addProperty("angle", actualRotation.angle());
-                            if (actualRotation.rescale()) {
-                                rotationObject.addProperty("rescale", true);
-                            }
+    /**
+     * Receives the unmerged elements of a block, the block position is relative to the converted region.
+     */
+    @FunctionalInterface
+    interface ElementSink {
+        void accept(int x, int y, int z, BakedVariant variant, BakedVariant.Element element, int faceMask) throws IOException;
+    }
 
-                            elementObject.add("rotation", rotationObject);
-                        }
-                        elementObject.addProperty("name", blockPos.toShortString() + " - " + variant.modelLocation());
-
-                        var faces = new JsonObject();
-                        element.faces().forEach((direction, face) -> {
-                            if (face.cullForDirection() != null) {
-                                var rotated = Direction.rotate(transformMatrix, face.cullForDirection());
-                                var shouldCull = culledDirections.contains(rotated);
-                                if (shouldCull) {
-                                    return;
-                                }
-                            }
-                            var faceObject = new JsonObject();
+    /**
+     * Returns the parts of the blockstate model that apply to the state, cached per state.
+     */
+    static StateGeometry geometry(BlockState state) {
+        var cached = stateGeometries.get(state);
+        if (cached != null) {
+            return cached;
+        }
+        // baked outside of the map update, baking the parts computes into the variant cache
+        var created = snapshot != null ? snapshot.geometry(state) : createGeometry(state);
+        var previous = stateGeometries.putIfAbsent(state, created);
+        return previous != null ? previous : created;
+    }
 
-                            var transformedDirection = Direction.rotate(transformMatrix, direction);
-                            final BlockElementFace.UVs uvs;
-                            if (face.uvs() != null) {
-                                uvs = face.uvs();
-                            } else {
-                                uvs = FaceBakery.defaultFaceUV(fromCopy, toCopy, transformedDirection);
-                            }
+    /**
+     * @return whether the loaded blockstates define a model for the state, only valid without a snapshot and
+     * outside of lazy mode
+     */
+    static boolean hasModel(BlockState state) {
+        return loadedModels.models().get(state) != null;
+    }
 
-                            var uv = new JsonArray();
+    @Nullable
+    private static BlockStateModel.UnbakedRoot unbakedRoot(BlockState state) {
+        if (lazyResources == null) {
+            return loadedModels.models().get(state);
+        }
+        var block = state.getBlock();
+        var cached = lazyBlockStates.get(block);
+        if (cached == null) {
+            // loaded outside of the map update, holding its lock while reading would block unrelated keys
+            var loaded = loadBlockState(block);
+            var previous = lazyBlockStates.putIfAbsent(block, loaded);
+            cached = previous != null ? previous : loaded;
+        }
+        return cached.get(state);
+    }
 
-                            var rotation = face.rotation();
-                            if (modelState.uvLock()) {
-                                var firstVertex = rotation.rotateVertexIndex(0);
-                                var secondVertex = rotation.rotateVertexIndex(2);
-                                var transformationMatrix = blockModelState.inverseFaceTransformation(transformedDirection);
+    /**
+     * @return the models of every state of the block, empty if the block has no blockstate file
+     */
+    private static Map<BlockState, BlockStateModel.UnbakedRoot> loadBlockState(Block block) {
+        var file = BuiltInRegistries.BLOCK.getKey(block).withPath(path -> "blockstates/" + path + ".json");
+        var resource = lazyResources.getResource(file);
+        if (resource.isEmpty()) {
+            return Map.of();
+        }
+        try (var reader = resource.get().openAsReader()) {
+            var definition = BlockModelDefinition.CODEC.parse(JsonOps.INSTANCE, JsonParser.parseReader(reader))
+                    .getOrThrow(error -> new JsonParseException("Failed to load " + file + ": " + error));
+            return definition.instantiate(block.getStateDefinition(), () -> file + " in " + resource.get().sourcePackId());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-                                var startUv = new Vector3f(uvs.getVertexU(firstVertex), uvs.getVertexV(firstVertex), 0);
-                                var endUv = new Vector3f(uvs.getVertexU(secondVertex), uvs.getVertexV(secondVertex), 0);
+    private static UnbakedModel unbakedModel(ResourceLocation location) {
+        if (lazyResources == null) {
+            return blockModels.get(location);
+        }
+        var cached = lazyBlockModels.get(location);
+        if (cached != null) {
+            return cached;
+        }
+        var loaded = loadBlockModel(location);
+        var previous = lazyBlockModels.putIfAbsent(location, loaded);
+        return previous != null ? previous : loaded;
+    }
 
-                                var transUv1 = new Vector3f(startUv);
-                                var transUv2 = new Vector3f(endUv);
+    private static UnbakedModel loadBlockModel(ResourceLocation location) {
+        var file = location.withPath(path -> "models/" + path + ".json");
+        var resource = lazyResources.getResource(file).orElseThrow(() -> new IllegalStateException("Missing block model " + file));
+        try (var reader = resource.openAsReader()) {
+            return BlockModel.fromStream(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-                                if (!MatrixUtil.isIdentity(transformationMatrix)) {
-                                    var uvOffset = new Vector3f(8, 8, 0);
-                                    transUv1.sub(uvOffset);
-                                    transUv2.sub(uvOffset);
-                                    transformationMatrix.transformPosition(transUv1);
-                                    transformationMatrix.transformPosition(transUv2);
-                                    transUv1.add(uvOffset);
-                                    transUv2.add(uvOffset);
-                                }
+    private static StateGeometry createGeometry(BlockState state) {
+        BlockStateModel.UnbakedRoot models = unbakedRoot(state);
+        return switch (models) {
+            case BlockStateModel.SimpleCachedUnbakedRoot simple -> StateGeometry.of(List.of(simple.contents));
+            case MultiPartModel.Unbaked multiPart -> StateGeometry.of(multiPart.selectors.stream()
+                    .filter(selector -> selector.condition().test(state))
+                    .map(MultiPartModel.Selector::model)
+                    .toList());
+            case null, default -> {
+                unsupportedStates.increment();
+                yield StateGeometry.EMPTY;
+            }
+        };
+    }
 
-                                var mirrorX = Math.signum(endUv.x - startUv.x) == Math.signum(transUv2.x - transUv1.x);
-                                var mirrorY = Math.signum(endUv.y - startUv.y) == Math.signum(transUv2.y - transUv1.y);
+    /**
+     * Bakes the geometry of a variant into block local coordinates, cached per variant.
+     * The result only depends on the variant, so every state sharing it shares the baked geometry.
+     */
+    static BakedVariant bake(Variant variant) {
+        var cached = bakedVariants.get(variant);
+        if (cached != null) {
+            return cached;
+        }
+        // baked outside of the map update, resolving the model may load it in lazy mode
+        var created = createBakedVariant(variant);
+        var previous = bakedVariants.putIfAbsent(variant, created);
+        return previous != null ? previous : created;
+    }
 
-                                uv.add(mirrorX ? transUv1.x : transUv2.x);
-                                uv.add(mirrorY ? transUv1.y : transUv2.y);
-                                uv.add(mirrorX ? transUv2.x : transUv1.x);
-                                uv.add(mirrorY ? transUv2.y : transUv1.y);
+    private static BakedVariant createBakedVariant(Variant variant) {
+        var stats = currentStats.get();
+        if (stats == null) {
+            return createBakedVariant(variant, null);
+        }
+        long start = System.nanoTime();
+        long uvBefore = stats.uvComputationNanos;
+        try {
+            return createBakedVariant(variant, stats);
+        } finally {
+            stats.elementTransformNanos += System.nanoTime() - start - (stats.uvComputationNanos - uvBefore);
+        }
+    }
 
-                                faceObject.addProperty("rotation", rotation.shift * 90);
-                            } else {
-                                var global = BlockMath.VANILLA_UV_TRANSFORM_LOCAL_TO_GLOBAL.get(direction);
-                                var local = BlockMath.VANILLA_UV_TRANSFORM_GLOBAL_TO_LOCAL.get(transformedDirection);
-                                var rotationMatrix = new Matrix4f()
-                                        .translation(0.5F, 0.5F, 0.5F)
-                                        .mul(global.getMatrixCopy()
-                                                .mul(blockModelState.transformation().getMatrix())
-                                                .mul(local.getMatrix())
-                                        )
-                                        .translate(-0.5F, -0.5F, -0.5F);
-
-                                float radians = rotation.shift * 90f * Mth.DEG_TO_RAD;
-                                var vector3f = new Matrix3f(rotationMatrix)
-                                        .transform(Mth.cos(radians), Mth.sin(radians), 0.0f, new Vector3f());
-
-                                uv.add(uvs.minU());
-                                uv.add(uvs.minV());
-                                uv.add(uvs.maxU());
-                                uv.add(uvs.maxV());
-
-                                faceObject.addProperty("rotation", Mth.wrapDegrees(
-                                        Mth.roundToward((int) Math.toDegrees(Math.atan2(vector3f.y(), vector3f.x())), 90)
-                                ));
-                            }
+    private static BakedVariant createBakedVariant(Variant variant, @Nullable ConversionStats stats) {
+        var modelState = variant.modelState();
+        var model = resolve(variant.modelLocation());
 
-                            faceObject.add("uv", uv);
+        var geometry = model.simpleGeometry();
+        if (geometry == null) {
+            return new BakedVariant(variant.modelLocation(), List.of());
+        }
 
-                            faceObject.addProperty("texture", getOrCreateKey(textureReferences, model, face.texture()));
-                            faces.add(transformedDirection.getSerializedName(), faceObject);
-                        });
-                        if (faces.isEmpty()) {
-                            continue;
-                        }
-                        elementObject.add("faces", faces);
-                        elements.add(elementObject);
-                    }
-                }
+        var blockModelState = modelState.asModelState();
+        var transformMatrix = blockModelState.transformation().getMatrix();
+        var elements = new ArrayList<BakedVariant.Element>(geometry.elements().size());
+        for (var element : geometry.elements()) {
+            Vector3f fromCopy = new Vector3f(element.from());
+            Vector3f toCopy = new Vector3f(element.to());
+            fromCopy.sub(ROTATION_PIVOT);
+            toCopy.sub(ROTATION_PIVOT);
+            transformMatrix.transformPosition(fromCopy);
+            transformMatrix.transformPosition(toCopy);
+            fromCopy.add(ROTATION_PIVOT);
+            toCopy.add(ROTATION_PIVOT);
+
+            if (fromCopy.x > toCopy.x != element.from().x() > element.to().x()) {
+                float temp = fromCopy.x;
+                fromCopy.x = toCopy.x;
+                toCopy.x = temp;
             }
-        }
 
-        jsonObject.add("elements", elements);
-        JsonObject textures = new JsonObject();
+            if (fromCopy.y > toCopy.y != element.from().y() > element.to().y()) {
+                float temp = fromCopy.y;
+                fromCopy.y = toCopy.y;
+                toCopy.y = temp;
+            }
 
-        for (Map.Entry<ResourceLocation, String> entry : textureReferences.entrySet()) {
-            ResourceLocation resourceLocation = entry.getKey();
-            if (resourceLocation == null) {
-                textures.addProperty(entry.getValue(), "");
-            } else if (resourceLocation.getNamespace().equals("minecraft")) {
-                textures.addProperty(entry.getValue(), entry.getKey().getPath());
-            } else {
-                textures.addProperty(entry.getValue(), entry.getKey().toString());
+            if (fromCopy.z > toCopy.z != element.from().z() > element.to().z()) {
+                float temp = fromCopy.z;
+                fromCopy.z = toCopy.z;
+                toCopy.z = temp;
             }
-        }
 
-        jsonObject.add("textures", textures);
-        return jsonObject;
-    }
+            BlockElementRotation actualRotation = null;
+            if (element.rotation() != null) {
+                var rotation = element.rotation();
+                var rotationDirection = Direction.get(Direction.AxisDirection.POSITIVE, rotation.axis());
+                var actualRotationDirection = Direction.rotate(transformMatrix, rotationDirection);
+                if (rotationDirection == actualRotationDirection) {
+                    actualRotation = rotation;
+                } else {
+                    actualRotation = new BlockElementRotation(
+                            rotation.origin(),
+                            rotationDirection.getAxis(),
+                            rotation.angle(),
+                            rotation.rescale());
+                }
+            }
 
-    private static JsonArray serialize(Vector3f vector3f) {
-        var jsonArray = new JsonArray();
-        jsonArray.add(vector3f.x);
-        jsonArray.add(vector3f.y);
-        jsonArray.add(vector3f.z);
-        return jsonArray;
-    }
+            var faces = new ArrayList<BakedVariant.Face>(element.faces().size());
+            element.faces().forEach((direction, face) -> {
+                Direction cullFace = null;
+                if (face.cullForDirection() != null) {
+                    cullFace = Direction.rotate(transformMatrix, face.cullForDirection());
+                }
 
-    private static void resolveVariants(
-            BlockStateModel.Unbaked model,
-            List<SingleVariant.Unbaked> variants,
-            RandomSource randomSource
-    ) {
-        if (model instanceof WeightedVariants.Unbaked(WeightedList<BlockStateModel.Unbaked> entries)) {
-            resolveVariants(entries.getRandomOrThrow(randomSource), variants, randomSource);
-        } else if (model instanceof SingleVariant.Unbaked singleVariant) {
-            variants.add(singleVariant);
-        }
-    }
+                var transformedDirection = Direction.rotate(transformMatrix, direction);
+                long uvStart = stats != null ? System.nanoTime() : 0;
+                final BlockElementFace.UVs uvs;
+                if (face.uvs() != null) {
+                    uvs = face.uvs();
+                } else {
+                    uvs = FaceBakery.defaultFaceUV(fromCopy, toCopy, transformedDirection);
+                }
 
-    @Nullable
-    private static <T> T getPos(@Nullable T @NotNull [] @NotNull [] @NotNull [] matrix, BlockPos position) {
-        try {
-            return matrix[position.getX()][position.getY()][position.getZ()];
-        } catch (IndexOutOfBoundsException ignored) {
-            return null;
+                var uv = new float[4];
+                final int uvRotation;
+                var rotation = face.rotation();
+                if (modelState.uvLock()) {
+                    var firstVertex = rotation.rotateVertexIndex(0);
+                    var secondVertex = rotation.rotateVertexIndex(2);
+                    var transformationMatrix = blockModelState.inverseFaceTransformation(transformedDirection);
+
+                    var startUv = new Vector3f(uvs.getVertexU(firstVertex), uvs.getVertexV(firstVertex), 0);
+                    var endUv = new Vector3f(uvs.getVertexU(secondVertex), uvs.getVertexV(secondVertex), 0);
+
+                    var transUv1 = new Vector3f(startUv);
+                    var transUv2 = new Vector3f(endUv);
+
+                    if (!MatrixUtil.isIdentity(transformationMatrix)) {
+                        var uvOffset = new Vector3f(8, 8, 0);
+                        transUv1.sub(uvOffset);
+                        transUv2.sub(uvOffset);
+                        transformationMatrix.transformPosition(transUv1);
+                        transformationMatrix.transformPosition(transUv2);
+                        transUv1.add(uvOffset);
+                        transUv2.add(uvOffset);
+                    }
+
+                    var mirrorX = Math.signum(endUv.x - startUv.x) == Math.signum(transUv2.x - transUv1.x);
+                    var mirrorY = Math.signum(endUv.y - startUv.y) == Math.signum(transUv2.y - transUv1.y);
+
+                    uv[0] = mirrorX ? transUv1.x : transUv2.x;
+                    uv[1] = mirrorY ? transUv1.y : transUv2.y;
+                    uv[2] = mirrorX ? transUv2.x : transUv1.x;
+                    uv[3] = mirrorY ? transUv2.y : transUv1.y;
+
+                    uvRotation = rotation.shift * 90;
+                } else {
+                    var global = BlockMath.VANILLA_UV_TRANSFORM_LOCAL_TO_GLOBAL.get(direction);
+                    var local = BlockMath.VANILLA_UV_TRANSFORM_GLOBAL_TO_LOCAL.get(transformedDirection);
+                    var rotationMatrix = new Matrix4f()
+                            .translation(0.5F, 0.5F, 0.5F)
+                            .mul(global.getMatrixCopy()
+                                    .mul(blockModelState.transformation().getMatrix())
+                                    .mul(local.getMatrix())
+                            )
+                            .translate(-0.5F, -0.5F, -0.5F);
+
+                    float radians = rotation.shift * 90f * Mth.DEG_TO_RAD;
+                    var vector3f = new Matrix3f(rotationMatrix)
+                            .transform(Mth.cos(radians), Mth.sin(radians), 0.0f, new Vector3f());
+
+                    uv[0] = uvs.minU();
+                    uv[1] = uvs.minV();
+                    uv[2] = uvs.maxU();
+                    uv[3] = uvs.maxV();
+
+                    uvRotation = Mth.wrapDegrees(
+                            Mth.roundToward((int) Math.toDegrees(Math.atan2(vector3f.y(), vector3f.x())), 90)
+                    );
+                }
+                if (stats != null) {
+                    stats.uvComputationNanos += System.nanoTime() - uvStart;
+                }
+
+                faces.add(new BakedVariant.Face(transformedDirection, cullFace, uv, uvRotation, resolveTexture(model, face.texture())));
+            });
+            elements.add(new BakedVariant.Element(fromCopy, toCopy, actualRotation, List.copyOf(faces)));
         }
+        return new BakedVariant(variant.modelLocation(), List.copyOf(elements));
     }
 
     public static Transformation getUVTransform(Transformation transformation, Direction direction) {
@@ -362,53 +695,69 @@ public class ModelConverter {
         return BlockMath.blockCenterToCorner(transformation3);
     }
 
-    private static String getOrCreateKey(
-            Map<ResourceLocation, String> textureMap,
-            ResolvedBlockModel model,
-            String textureKey
-    ) {
+    @Nullable
+    private static ResourceLocation resolveTexture(ResolvedBlockModel model, String textureKey) {
         var data = model.textures.get(textureKey.substring(textureKey.indexOf("#") + 1));
 
-        ResourceLocation textureLocation;
-        switch (data) {
-            case null -> textureLocation = null;
-            case TextureSlots.Reference reference -> {
-                return getOrCreateKey(textureMap, model, reference.target());
-            }
-            case TextureSlots.Value value -> textureLocation = value.material().texture();
-        }
-
-        return textureMap.computeIfAbsent(textureLocation, key -> Integer.toString(textureMap.size()));
+        return switch (data) {
+            case null -> null;
+            case TextureSlots.Reference reference -> resolveTexture(model, reference.target());
+            case TextureSlots.Value value -> value.material().texture();
+        };
     }
 
-    static ResolvedBlockModel resolve(
-            Map<ResourceLocation, UnbakedModel> models,
-            ResourceLocation resourceLocation
-    ) {
-        var model = models.get(resourceLocation);
+    /**
+     * Resolves a model and its parent chain, resolved models are cached for the lifetime of the process.
+     */
+    static ResolvedBlockModel resolve(ResourceLocation resourceLocation) {
+        var cached = resolvedModels.get(resourceLocation);
+        if (cached != null) {
+            resolvedModelHits.increment();
+            return cached;
+        }
+        resolvedModelMisses.increment();
+
+        var model = unbakedModel(resourceLocation);
         final ResolvedBlockModel parent;
         if (model.parent() != null) {
-            parent = resolve(models, model.parent());
+            // resolved outside of the map update, ConcurrentHashMap does not allow recursive computes
+            parent = resolve(model.parent());
         } else {
             parent = null;
         }
 
-        return new ResolvedBlockModel(parent, model, new HashMap<>());
+        var textures = new HashMap<String, TextureSlots.SlotContents>();
+        if (parent != null) {
+            textures.putAll(parent.textures());
+        }
+        textures.putAll(model.textureSlots().values());
+        var resolved = new ResolvedBlockModel(parent, model, Map.copyOf(textures));
+        var previous = resolvedModels.putIfAbsent(resourceLocation, resolved);
+        return previous != null ? previous : resolved;
+    }
+
+    public static long resolvedModelHits() {
+        return resolvedModelHits.sum();
+    }
+
+    public static long resolvedModelMisses() {
+        return resolvedModelMisses.sum();
+    }
+
+    /**
+     * @return the number of block states whose blockstate model is of a type the converter does not support,
+     * those blocks are left out of the models
+     */
+    public static long unsupportedStates() {
+        return unsupportedStates.sum();
     }
 
     record ResolvedBlockModel(
             @Nullable ResolvedBlockModel resolvedParent,
             UnbakedModel model,
-            HashMap<String, TextureSlots.SlotContents> textures
+            Map<String, TextureSlots.SlotContents> textures
     ) implements UnbakedModel {
 
-        ResolvedBlockModel {
-            if (resolvedParent != null) {
-                textures.putAll(resolvedParent.textureSlots().values());
-            }
-            textures.putAll(model.textureSlots().values());
-        }
-
         @Override
         public @Nullable Boolean ambientOcclusion() {
             return get(UnbakedModel::ambientOcclusion);
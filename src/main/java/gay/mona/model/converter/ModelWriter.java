@@ -0,0 +1,217 @@
+package gay.mona.model.converter;
+
+import com.google.gson.stream.JsonWriter;
+import it.unimi.dsi.fastutil.floats.Float2ObjectOpenHashMap;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3fc;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams a block model to a {@link JsonWriter}, one element at a time.
+ * <p>
+ * Elements are written as they are passed in, only the texture references are kept until {@link #end()}.
+ * Coordinates are moved into model space with the scale and offset given on construction.
+ */
+final class ModelWriter {
+    static final int FULL_PRECISION = -1;
+
+    private final JsonWriter json;
+    private final int precision;
+    private final float globalScale;
+    private final Vector3fc centeringVec;
+    private final Map<ResourceLocation, String> textureReferences = new HashMap<>();
+    /**
+     * Models repeat few distinct coordinates, each is only formatted once.
+     */
+    private final Float2ObjectOpenHashMap<String> formattedValues = new Float2ObjectOpenHashMap<>();
+    private final StringBuilder name = new StringBuilder();
+    @Nullable
+    private final TextureAtlas atlas;
+    private final float[] atlasUv = new float[4];
+
+    /**
+     * @param precision the maximum number of decimals written or {@link #FULL_PRECISION} to write floats as is
+     */
+    ModelWriter(JsonWriter json, int precision, float globalScale, Vector3fc centeringVec) {
+        this(json, precision, globalScale, centeringVec, null);
+    }
+
+    /**
+     * @param atlas the atlas faces reference instead of the textures in it or {@code null} to reference every
+     *              texture directly
+     */
+    ModelWriter(JsonWriter json, int precision, float globalScale, Vector3fc centeringVec, @Nullable TextureAtlas atlas) {
+        this.json = json;
+        this.precision = precision;
+        this.globalScale = globalScale;
+        this.centeringVec = centeringVec;
+        this.atlas = atlas;
+    }
+
+    void begin() throws IOException {
+        json.beginObject();
+        json.name("elements");
+        json.beginArray();
+    }
+
+    void write(PlacedElement placed) throws IOException {
+        var pos = placed.pos();
+        var last = placed.last();
+        write(pos.getX(), pos.getY(), pos.getZ(), last.getX(), last.getY(), last.getZ(), placed.isMerged(),
+                placed.variant(), placed.element(), placed.faceMask());
+    }
+
+    void write(int x, int y, int z, BakedVariant variant, BakedVariant.Element element, int faceMask) throws IOException {
+        write(x, y, z, x, y, z, false, variant, element, faceMask);
+    }
+
+    /**
+     * Writes an element covering the blocks from {@code x, y, z} to {@code lastX, lastY, lastZ}. Coordinates are
+     * computed on primitives in the same order as the vector math they replace, so the output does not change.
+     */
+    private void write(
+            int x, int y, int z,
+            int lastX, int lastY, int lastZ,
+            boolean merged,
+            BakedVariant variant,
+            BakedVariant.Element element,
+            int faceMask
+    ) throws IOException {
+        float blockX = x * 16f;
+        float blockY = y * 16f;
+        float blockZ = z * 16f;
+
+        json.beginObject();
+        json.name("from");
+        var from = element.from();
+        write(from.x() + blockX, from.y() + blockY, from.z() + blockZ);
+        json.name("to");
+        var to = element.to();
+        write(to.x() + lastX * 16f, to.y() + lastY * 16f, to.z() + lastZ * 16f);
+        if (element.rotation() != null) {
+            var rotation = element.rotation();
+            var origin = rotation.origin();
+            var pivot = ModelConverter.ROTATION_PIVOT;
+            json.name("rotation");
+            json.beginObject();
+            json.name("origin");
+            write(origin.x() + blockX + pivot.x(), origin.y() + blockY + pivot.y(), origin.z() + blockZ + pivot.z());
+            json.name("axis").value(rotation.axis().getSerializedName());
+            // angles are exact already, rounding them with the precision would change the geometry
+            json.name("angle").jsonValue(Float.toString(rotation.angle()));
+            if (rotation.rescale()) {
+                json.name("rescale").value(true);
+            }
+            json.endObject();
+        }
+        name.setLength(0);
+        name.append(x).append(", ").append(y).append(", ").append(z);
+        if (merged) {
+            name.append(" to ").append(lastX).append(", ").append(lastY).append(", ").append(lastZ);
+        }
+        var modelLocation = variant.modelLocation();
+        name.append(" - ").append(modelLocation.getNamespace()).append(':').append(modelLocation.getPath());
+        json.name("name").value(name.toString());
+
+        json.name("faces");
+        json.beginObject();
+        var faces = element.faces();
+        for (int i = 0; i < faces.size(); i++) {
+            if ((faceMask & (1 << i)) == 0) {
+                continue;
+            }
+            var face = faces.get(i);
+            var uv = face.uv();
+            var texture = face.texture();
+            if (atlas != null && atlas.contains(texture)) {
+                atlas.remap(texture, uv, atlasUv);
+                uv = atlasUv;
+                texture = atlas.location();
+            }
+            json.name(face.direction().getSerializedName());
+            json.beginObject();
+            json.name("rotation").value(face.rotation());
+            json.name("uv");
+            json.beginArray();
+            for (float value : uv) {
+                writeValue(value);
+            }
+            json.endArray();
+            json.name("texture").value(getOrCreateKey(texture));
+            json.endObject();
+        }
+        json.endObject();
+        json.endObject();
+    }
+
+    void end() throws IOException {
+        json.endArray();
+        json.name("textures");
+        json.beginObject();
+        for (Map.Entry<ResourceLocation, String> entry : textureReferences.entrySet()) {
+            ResourceLocation resourceLocation = entry.getKey();
+            json.name(entry.getValue());
+            if (resourceLocation == null) {
+                json.value("");
+            } else if (resourceLocation.getNamespace().equals("minecraft")) {
+                json.value(resourceLocation.getPath());
+            } else {
+                json.value(resourceLocation.toString());
+            }
+        }
+        json.endObject();
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * @return the textures referenced so far, {@code null} for a missing texture
+     */
+    Set<ResourceLocation> textures() {
+        return textureReferences.keySet();
+    }
+
+    String getOrCreateKey(@Nullable ResourceLocation textureLocation) {
+        var key = textureReferences.get(textureLocation);
+        if (key == null) {
+            key = Integer.toString(textureReferences.size());
+            textureReferences.put(textureLocation, key);
+        }
+        return key;
+    }
+
+    /**
+     * Moves a position into model space and writes it as an array.
+     */
+    private void write(float x, float y, float z) throws IOException {
+        json.beginArray();
+        writeValue(x * globalScale + centeringVec.x());
+        writeValue(y * globalScale + centeringVec.y());
+        writeValue(z * globalScale + centeringVec.z());
+        json.endArray();
+    }
+
+    private void writeValue(float value) throws IOException {
+        var formatted = formattedValues.get(value);
+        if (formatted == null) {
+            formatted = format(value);
+            formattedValues.put(value, formatted);
+        }
+        json.jsonValue(formatted);
+    }
+
+    private String format(float value) {
+        if (precision == FULL_PRECISION) {
+            return Float.toString(value);
+        }
+        var rounded = new BigDecimal(Float.toString(value)).setScale(precision, RoundingMode.HALF_UP).stripTrailingZeros();
+        return (rounded.signum() == 0 ? BigDecimal.ZERO : rounded.scale() < 0 ? rounded.setScale(0) : rounded).toString();
+    }
+}
@@ -0,0 +1,33 @@
+package gay.mona.model.converter;
+
+import net.minecraft.core.BlockPos;
+
+/**
+ * A baked element placed in the structure, covering one block or a box of merged blocks.
+ *
+ * @param pos      the lowest block of the element
+ * @param size     the number of blocks covered on each axis, {@code 1, 1, 1} for an unmerged element
+ * @param variant  the variant the element belongs to
+ * @param element  the baked element
+ * @param faceMask the visible faces, bit {@code i} is set if {@code element.faces().get(i)} is not culled
+ */
+record PlacedElement(
+        BlockPos pos,
+        BlockPos size,
+        BakedVariant variant,
+        BakedVariant.Element element,
+        int faceMask
+) {
+    static final BlockPos SINGLE_BLOCK = new BlockPos(1, 1, 1);
+
+    boolean isMerged() {
+        return !size.equals(SINGLE_BLOCK);
+    }
+
+    /**
+     * @return the highest block covered by the element
+     */
+    BlockPos last() {
+        return pos.offset(size.getX() - 1, size.getY() - 1, size.getZ() - 1);
+    }
+}
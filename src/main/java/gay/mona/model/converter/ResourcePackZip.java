@@ -0,0 +1,110 @@
+package gay.mona.model.converter;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes models into a resource pack zip instead of loose files.
+ * <p>
+ * Entries are deflated on the thread that adds them and appended as raw entries through a single stream, so
+ * compression runs in parallel while the file is written sequentially. The zip is written to a temporary file
+ * that only replaces {@code file} once {@link #commit()} is called, closing it without committing deletes it and
+ * keeps the previous pack.
+ */
+public class ResourcePackZip implements AutoCloseable {
+    public static final int DEFAULT_PACK_FORMAT = 69;
+
+    private final Path file;
+    private final Path tempFile;
+    private final ZipArchiveOutputStream zip;
+    private boolean committed;
+
+    public ResourcePackZip(Path file, int packFormat, String description) throws IOException {
+        this.file = file;
+        this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        var parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.zip = new ZipArchiveOutputStream(tempFile);
+
+        var pack = new JsonObject();
+        pack.addProperty("description", description);
+        pack.addProperty("pack_format", packFormat);
+        pack.addProperty("min_format", packFormat);
+        pack.addProperty("max_format", packFormat);
+        var mcmeta = new JsonObject();
+        mcmeta.add("pack", pack);
+        write("pack.mcmeta", new GsonBuilder().setPrettyPrinting().create().toJson(mcmeta).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compresses {@code content} on the calling thread and appends it as {@code name}.
+     */
+    public void write(String name, byte[] content) throws IOException {
+        var crc = new CRC32();
+        crc.update(content);
+        var compressed = new ByteArrayOutputStream(content.length / 4 + 64);
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            var buffer = new byte[8192];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        var entry = new ZipArchiveEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(compressed.size());
+        entry.setCrc(crc.getValue());
+        synchronized (zip) {
+            zip.addRawArchiveEntry(entry, new ByteArrayInputStream(compressed.toByteArray()));
+        }
+    }
+
+    /**
+     * Finishes the zip and replaces {@code file} with it, call once every entry is written.
+     */
+    public void commit() throws IOException {
+        synchronized (zip) {
+            zip.close();
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+        }
+    }
+
+    /**
+     * Discards the zip unless it was {@link #commit() committed}.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (zip) {
+            if (committed) {
+                return;
+            }
+            try {
+                zip.close();
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+}
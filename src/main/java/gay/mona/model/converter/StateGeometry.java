@@ -0,0 +1,125 @@
+package gay.mona.model.converter;
+
+import net.minecraft.client.renderer.block.model.BlockStateModel;
+import net.minecraft.client.renderer.block.model.SingleVariant;
+import net.minecraft.client.renderer.block.model.WeightedVariants;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.RandomSource;
+import net.minecraft.util.random.WeightedList;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The parts of a blockstate model that apply to a single {@link net.minecraft.world.level.block.state.BlockState},
+ * with multipart conditions already evaluated and every variant baked.
+ * <p>
+ * If none of the parts are weighted the baked variants are resolved once, otherwise they are picked per block with
+ * a random seeded from the block position.
+ */
+final class StateGeometry {
+
+    static final StateGeometry EMPTY = new StateGeometry(List.of());
+
+    private final List<Part> parts;
+    @Nullable
+    private final List<BakedVariant> fixed;
+
+    StateGeometry(List<Part> parts) {
+        this.parts = List.copyOf(parts);
+        this.fixed = this.parts.stream().allMatch(Fixed.class::isInstance)
+                ? this.parts.stream().map(part -> ((Fixed) part).variant()).toList()
+                : null;
+    }
+
+    static StateGeometry of(List<BlockStateModel.Unbaked> models) {
+        return new StateGeometry(models.stream().map(StateGeometry::part).toList());
+    }
+
+    private static Part part(BlockStateModel.Unbaked model) {
+        if (model instanceof WeightedVariants.Unbaked(WeightedList<BlockStateModel.Unbaked> entries)) {
+            var builder = WeightedList.<Part>builder();
+            for (var entry : entries.unwrap()) {
+                builder.add(part(entry.value()), entry.weight());
+            }
+            return new Weighted(builder.build());
+        } else if (model instanceof SingleVariant.Unbaked singleVariant) {
+            return new Fixed(ModelConverter.bake(singleVariant.variant()));
+        }
+        return Unsupported.INSTANCE;
+    }
+
+    List<Part> parts() {
+        return parts;
+    }
+
+    /**
+     * Resolves the variants of the state at a block, weighted variants are picked with {@code randomSource}
+     * reseeded to {@code seed} into {@code scratch}, which is cleared first and returned.
+     */
+    List<BakedVariant> variants(long seed, RandomSource randomSource, List<BakedVariant> scratch) {
+        if (fixed != null) {
+            return fixed;
+        }
+        randomSource.setSeed(seed);
+        scratch.clear();
+        for (var part : parts) {
+            resolveVariants(part, scratch, randomSource);
+        }
+        return scratch;
+    }
+
+    /**
+     * Adds the textures of every variant the state may pick to {@code textures}, missing textures are left out.
+     */
+    void collectTextures(Set<ResourceLocation> textures) {
+        for (var part : parts) {
+            collectTextures(part, textures);
+        }
+    }
+
+    private static void collectTextures(Part part, Set<ResourceLocation> textures) {
+        if (part instanceof Weighted(WeightedList<Part> entries)) {
+            for (var entry : entries.unwrap()) {
+                collectTextures(entry.value(), textures);
+            }
+        } else if (part instanceof Fixed(BakedVariant variant)) {
+            for (var element : variant.elements()) {
+                for (var face : element.faces()) {
+                    if (face.texture() != null) {
+                        textures.add(face.texture());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void resolveVariants(
+            Part part,
+            List<BakedVariant> variants,
+            RandomSource randomSource
+    ) {
+        if (part instanceof Weighted(WeightedList<Part> entries)) {
+            resolveVariants(entries.getRandomOrThrow(randomSource), variants, randomSource);
+        } else if (part instanceof Fixed(BakedVariant variant)) {
+            variants.add(variant);
+        }
+    }
+
+    sealed interface Part permits Fixed, Weighted, Unsupported {
+    }
+
+    record Fixed(BakedVariant variant) implements Part {
+    }
+
+    record Weighted(WeightedList<Part> entries) implements Part {
+    }
+
+    /**
+     * A blockstate model type the converter does not know, it never contributes geometry.
+     */
+    enum Unsupported implements Part {
+        INSTANCE
+    }
+}
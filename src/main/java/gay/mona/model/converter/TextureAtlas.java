@@ -0,0 +1,130 @@
+package gay.mona.model.converter;
+
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The textures of a model stitched into a single image, faces reference {@link #location()} with their uv moved
+ * into the area of their texture.
+ * <p>
+ * Textures are packed into rows sorted by height. Both sides of the image are rounded up to powers of two, the client
+ * lowers the mipmap levels of the whole block atlas for sprites with other sizes.
+ */
+final class TextureAtlas {
+
+    private final ResourceLocation location;
+    private final Map<ResourceLocation, Sprite> sprites;
+    private final BufferedImage image;
+
+    private TextureAtlas(ResourceLocation location, Map<ResourceLocation, Sprite> sprites, BufferedImage image) {
+        this.location = location;
+        this.sprites = sprites;
+        this.image = image;
+    }
+
+    /**
+     * @param location the texture the model references the atlas as
+     * @return the atlas or {@code null} if there are no textures
+     */
+    @Nullable
+    static TextureAtlas stitch(ResourceLocation location, Map<ResourceLocation, BufferedImage> textures) {
+        if (textures.isEmpty()) {
+            return null;
+        }
+        var sorted = new ArrayList<>(textures.entrySet());
+        // the name keeps the layout the same between runs
+        sorted.sort(Comparator.<Map.Entry<ResourceLocation, BufferedImage>>comparingInt(entry -> -entry.getValue().getHeight())
+                .thenComparingInt(entry -> -entry.getValue().getWidth())
+                .thenComparing(Map.Entry.comparingByKey()));
+
+        long area = 0;
+        int widest = 0;
+        for (var entry : sorted) {
+            area += (long) entry.getValue().getWidth() * entry.getValue().getHeight();
+            widest = Math.max(widest, entry.getValue().getWidth());
+        }
+        int width = Math.max(powerOfTwo(widest), powerOfTwo((int) Math.ceil(Math.sqrt(area))));
+
+        var sprites = new HashMap<ResourceLocation, Sprite>();
+        int x = 0;
+        int y = 0;
+        int rowHeight = 0;
+        for (var entry : sorted) {
+            var texture = entry.getValue();
+            if (x + texture.getWidth() > width) {
+                x = 0;
+                y += rowHeight;
+                rowHeight = 0;
+            }
+            sprites.put(entry.getKey(), new Sprite(x, y, texture.getWidth(), texture.getHeight()));
+            x += texture.getWidth();
+            rowHeight = Math.max(rowHeight, texture.getHeight());
+        }
+        int height = powerOfTwo(y + rowHeight);
+
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        var graphics = image.createGraphics();
+        try {
+            for (var entry : sorted) {
+                var sprite = sprites.get(entry.getKey());
+                graphics.drawImage(entry.getValue(), sprite.x(), sprite.y(), null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return new TextureAtlas(location, sprites, image);
+    }
+
+    ResourceLocation location() {
+        return location;
+    }
+
+    /**
+     * @return whether the texture is part of the atlas, missing textures are not
+     */
+    boolean contains(@Nullable ResourceLocation texture) {
+        return texture != null && sprites.containsKey(texture);
+    }
+
+    /**
+     * Moves the uv of a face using {@code texture} into atlas space and stores it in {@code out}.
+     *
+     * @param uv min u, min v, max u, max v in 0..16 texture space
+     */
+    void remap(ResourceLocation texture, float[] uv, float[] out) {
+        var sprite = sprites.get(texture);
+        float scaleU = (float) sprite.width() / image.getWidth();
+        float scaleV = (float) sprite.height() / image.getHeight();
+        float offsetU = 16f * sprite.x() / image.getWidth();
+        float offsetV = 16f * sprite.y() / image.getHeight();
+        out[0] = offsetU + uv[0] * scaleU;
+        out[1] = offsetV + uv[1] * scaleV;
+        out[2] = offsetU + uv[2] * scaleU;
+        out[3] = offsetV + uv[3] * scaleV;
+    }
+
+    byte[] toPng() throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        return bytes.toByteArray();
+    }
+
+    private static int powerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * The area of a texture in the atlas image, in pixels.
+     */
+    record Sprite(int x, int y, int width, int height) {
+    }
+}
@@ -0,0 +1,104 @@
+package gay.mona.model.converter;
+
+import com.google.gson.JsonParser;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.ResourceManager;
+import org.jetbrains.annotations.Nullable;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Decodes block textures from the vanilla pack for {@link TextureAtlas}, each texture once per run.
+ * <p>
+ * Textures are decoded in parallel on {@code executor} the first time any model asks for them, models asking for a
+ * texture that is still being decoded wait for the same decode. Animated textures are cut down to their first frame.
+ */
+final class TextureSource {
+
+    private final ResourceManager resources;
+    private final Executor executor;
+    /**
+     * Completes with {@code null} for textures that can't be used.
+     */
+    private final Map<ResourceLocation, CompletableFuture<BufferedImage>> images = new ConcurrentHashMap<>();
+
+    TextureSource(ResourceManager resources, Executor executor) {
+        this.resources = resources;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the decoded textures, textures that are missing or can't be decoded are left out
+     */
+    Map<ResourceLocation, BufferedImage> load(Collection<ResourceLocation> textures) {
+        var futures = new HashMap<ResourceLocation, CompletableFuture<BufferedImage>>();
+        for (var texture : textures) {
+            futures.put(texture, images.computeIfAbsent(texture, location -> CompletableFuture.supplyAsync(() -> decode(location), executor)));
+        }
+        var loaded = new HashMap<ResourceLocation, BufferedImage>();
+        for (var entry : futures.entrySet()) {
+            var image = entry.getValue().join();
+            if (image != null) {
+                loaded.put(entry.getKey(), image);
+            }
+        }
+        return loaded;
+    }
+
+    @Nullable
+    private BufferedImage decode(ResourceLocation texture) {
+        var file = texture.withPath(path -> "textures/" + path + ".png");
+        var resource = resources.getResource(file);
+        if (resource.isEmpty()) {
+            System.out.println("Leaving missing texture " + texture + " out of the atlas");
+            return null;
+        }
+        try {
+            BufferedImage image;
+            try (var stream = resource.get().open()) {
+                image = ImageIO.read(stream);
+            }
+            if (image == null) {
+                System.out.println("Leaving texture " + texture + " in an unknown format out of the atlas");
+                return null;
+            }
+            var metadata = resources.getResource(file.withSuffix(".mcmeta"));
+            if (metadata.isPresent()) {
+                image = firstFrame(image, metadata.get().openAsReader());
+            }
+            return image;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Leaving texture " + texture + " out of the atlas: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Frames are square by default, unless the animation section of the metadata gives them a size.
+     */
+    private static BufferedImage firstFrame(BufferedImage image, Reader metadata) throws IOException {
+        try (metadata) {
+            var json = JsonParser.parseReader(metadata).getAsJsonObject();
+            if (!json.has("animation")) {
+                return image;
+            }
+            var animation = json.getAsJsonObject("animation");
+            int size = Math.min(image.getWidth(), image.getHeight());
+            int width = animation.has("width") ? animation.get("width").getAsInt() : size;
+            int height = animation.has("height") ? animation.get("height").getAsInt() : size;
+            if (width > image.getWidth() || height > image.getHeight()) {
+                return image;
+            }
+            return image.getSubimage(0, 0, width, height);
+        }
+    }
+}
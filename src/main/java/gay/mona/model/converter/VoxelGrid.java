@@ -0,0 +1,454 @@
+package gay.mona.model.converter;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.RenderShape;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.levelgen.structure.templatesystem.StructureTemplate;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The blocks of a structure, indexed by {@code x + sizeX * (y + sizeY * z)}.
+ * <p>
+ * Every voxel stores a palette id in the low 24 bits and the neighbour occlusion mask in the high 8 bits. Bit
+ * {@link Direction#get3DDataValue()} of the mask is set if the face towards that neighbour is hidden by it.
+ * Dense structures are stored in a flat {@code int[]}, sparse ones in a primitive hash map keyed by index.
+ */
+final class VoxelGrid {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final int EMPTY = 0;
+    private static final int ID_MASK = 0xFFFFFF;
+    private static final int OCCLUSION_SHIFT = 24;
+    /**
+     * Dense storage is used when at least one in {@code DENSE_FILL_RATIO} voxels is set.
+     */
+    private static final int DENSE_FILL_RATIO = 16;
+    private static final int ALWAYS_DENSE_VOLUME = 1 << 16;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    // id 0 is an empty voxel
+    private final BlockState[] palette;
+    @Nullable
+    private final int[] dense;
+    @Nullable
+    private final Long2IntOpenHashMap sparse;
+
+    private VoxelGrid(int sizeX, int sizeY, int sizeZ, BlockState[] palette, @Nullable int[] dense, @Nullable Long2IntOpenHashMap sparse) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.palette = palette;
+        this.dense = dense;
+        this.sparse = sparse;
+    }
+
+    /**
+     * Air is left out, it never renders and culls its neighbours the same way an empty voxel does. Templates saved
+     * by a structure block store every air block, counting them would make every structure look dense.
+     */
+    static VoxelGrid of(List<StructureTemplate.StructureBlockInfo> blocks, int sizeX, int sizeY, int sizeZ) {
+        int nonAir = 0;
+        for (var block : blocks) {
+            if (!block.state().isAir()) {
+                nonAir++;
+            }
+        }
+        var builder = new Builder(sizeX, sizeY, sizeZ, nonAir);
+        for (var block : blocks) {
+            if (block.state().isAir()) {
+                continue;
+            }
+            var pos = block.pos();
+            builder.set(pos.getX(), pos.getY(), pos.getZ(), block.state());
+        }
+        return builder.build();
+    }
+
+    int sizeX() {
+        return sizeX;
+    }
+
+    int sizeY() {
+        return sizeY;
+    }
+
+    int sizeZ() {
+        return sizeZ;
+    }
+
+    /**
+     * @return the box covering every voxel of the grid, maxima included
+     */
+    BoundingBox bounds() {
+        return new BoundingBox(0, 0, 0, sizeX - 1, sizeY - 1, sizeZ - 1);
+    }
+
+    boolean contains(int x, int y, int z) {
+        return x >= 0 && y >= 0 && z >= 0 && x < sizeX && y < sizeY && z < sizeZ;
+    }
+
+    /**
+     * @return the state at the position or {@code null} if the voxel is empty or out of bounds
+     */
+    @Nullable
+    BlockState get(int x, int y, int z) {
+        if (!contains(x, y, z)) {
+            return null;
+        }
+        return palette[cell(index(x, y, z)) & ID_MASK];
+    }
+
+    /**
+     * @return the occlusion mask of the voxel, 0 for empty or out of bounds voxels
+     */
+    int occlusion(int x, int y, int z) {
+        if (!contains(x, y, z)) {
+            return 0;
+        }
+        return cell(index(x, y, z)) >>> OCCLUSION_SHIFT;
+    }
+
+    /**
+     * Visits every non-empty voxel with x changing fastest, then y, then z.
+     */
+    void forEach(Visitor visitor) {
+        if (dense != null) {
+            for (int index = 0; index < dense.length; index++) {
+                visit(visitor, index, dense[index]);
+            }
+        } else if (sparse != null) {
+            var indices = sparse.keySet().toLongArray();
+            Arrays.sort(indices);
+            for (long index : indices) {
+                visit(visitor, index, sparse.get(index));
+            }
+        }
+    }
+
+    /**
+     * Visits every non-empty voxel inside {@code region} in the same order as {@link #forEach(Visitor)}, with
+     * coordinates of this grid.
+     */
+    void forEach(BoundingBox region, Visitor visitor) {
+        if (region.minX() <= 0 && region.minY() <= 0 && region.minZ() <= 0
+                && region.maxX() >= sizeX - 1 && region.maxY() >= sizeY - 1 && region.maxZ() >= sizeZ - 1) {
+            forEach(visitor);
+            return;
+        }
+        for (int z = Math.max(region.minZ(), 0); z <= Math.min(region.maxZ(), sizeZ - 1); z++) {
+            for (int y = Math.max(region.minY(), 0); y <= Math.min(region.maxY(), sizeY - 1); y++) {
+                for (int x = Math.max(region.minX(), 0); x <= Math.min(region.maxX(), sizeX - 1); x++) {
+                    long index = index(x, y, z);
+                    visit(visitor, index, cell(index));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether any voxel inside {@code region} holds a non-air state
+     */
+    boolean hasBlocks(BoundingBox region) {
+        for (int z = Math.max(region.minZ(), 0); z <= Math.min(region.maxZ(), sizeZ - 1); z++) {
+            for (int y = Math.max(region.minY(), 0); y <= Math.min(region.maxY(), sizeY - 1); y++) {
+                for (int x = Math.max(region.minX(), 0); x <= Math.min(region.maxX(), sizeX - 1); x++) {
+                    var state = palette[cell(index(x, y, z)) & ID_MASK];
+                    if (state != null && !state.isAir()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void visit(Visitor visitor, long index, int cell) {
+        var state = palette[cell & ID_MASK];
+        if (state == null) {
+            return;
+        }
+        int x = (int) (index % sizeX);
+        int y = (int) (index / sizeX % sizeY);
+        int z = (int) (index / sizeX / sizeY);
+        visitor.visit(x, y, z, state, cell >>> OCCLUSION_SHIFT);
+    }
+
+    private long index(int x, int y, int z) {
+        return x + (long) sizeX * (y + (long) sizeY * z);
+    }
+
+    private int cell(long index) {
+        if (dense != null) {
+            return dense[(int) index];
+        }
+        return sparse.get(index);
+    }
+
+    /**
+     * Halves the resolution of the grid, every voxel of the result covers 2x2x2 voxels of this grid and holds the
+     * most common visible state among them. Ties go to the state found first in x, y, z order, voxels that only
+     * cover air, invisible blocks like barriers or empty voxels stay empty. Occlusion masks are computed anew.
+     */
+    VoxelGrid downsample() {
+        int downsampledX = (sizeX + 1) >> 1;
+        int downsampledY = (sizeY + 1) >> 1;
+        int downsampledZ = (sizeZ + 1) >> 1;
+        var cells = new LongOpenHashSet();
+        forEach((x, y, z, state, occlusionMask) -> {
+            if (isVisible(state)) {
+                cells.add((x >> 1) + (long) downsampledX * ((y >> 1) + (long) downsampledY * (z >> 1)));
+            }
+        });
+
+        var builder = new Builder(downsampledX, downsampledY, downsampledZ, cells.size());
+        var candidates = new BlockState[8];
+        var counts = new int[8];
+        var iterator = cells.iterator();
+        while (iterator.hasNext()) {
+            long cell = iterator.nextLong();
+            int x = (int) (cell % downsampledX);
+            int y = (int) (cell / downsampledX % downsampledY);
+            int z = (int) (cell / downsampledX / downsampledY);
+
+            int distinct = 0;
+            for (int i = 0; i < 8; i++) {
+                var state = get(x * 2 + (i & 1), y * 2 + (i >> 1 & 1), z * 2 + (i >> 2));
+                if (state == null || !isVisible(state)) {
+                    continue;
+                }
+                int candidate = 0;
+                while (candidate < distinct && candidates[candidate] != state) {
+                    candidate++;
+                }
+                if (candidate == distinct) {
+                    candidates[distinct] = state;
+                    counts[distinct++] = 0;
+                }
+                counts[candidate]++;
+            }
+            int dominant = 0;
+            for (int candidate = 1; candidate < distinct; candidate++) {
+                if (counts[candidate] > counts[dominant]) {
+                    dominant = candidate;
+                }
+            }
+            builder.set(x, y, z, candidates[dominant]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Flood fills from outside the bounding box through every voxel that does not occlude its neighbours and
+     * removes the blocks the fill never touched. Those are fully enclosed by occluding blocks, nothing of them can
+     * be seen from outside the structure.
+     * <p>
+     * Faces of the remaining blocks that point into an enclosed cavity are culled as well, faces next to a removed
+     * block stay culled. The fill walks every non-occluding voxel of the bounding box, including empty ones, and
+     * keeps one bit per voxel of the bounding box, sparse grids included.
+     *
+     * @return the number of removed blocks
+     */
+    int removeEnclosed() {
+        var occludes = new boolean[palette.length];
+        for (int id = 1; id < palette.length; id++) {
+            occludes[id] = palette[id].isSolidRender();
+        }
+
+        // padded by one voxel on every side, the padding connects the whole outside of the bounding box
+        long paddedX = sizeX + 2L;
+        long paddedY = sizeY + 2L;
+        long paddedZ = sizeZ + 2L;
+        var reached = new long[Math.toIntExact((paddedX * paddedY * paddedZ + 63) >>> 6)];
+        var queue = new LongArrayFIFOQueue();
+        reached[0] = 1;
+        queue.enqueue(0);
+        while (!queue.isEmpty()) {
+            long padded = queue.dequeueLong();
+            int x = (int) (padded % paddedX);
+            int y = (int) (padded / paddedX % paddedY);
+            int z = (int) (padded / paddedX / paddedY);
+            for (var direction : DIRECTIONS) {
+                int nx = x + direction.getStepX();
+                int ny = y + direction.getStepY();
+                int nz = z + direction.getStepZ();
+                if (nx < 0 || ny < 0 || nz < 0 || nx >= paddedX || ny >= paddedY || nz >= paddedZ) {
+                    continue;
+                }
+                long neighbour = nx + paddedX * (ny + paddedY * nz);
+                if ((reached[(int) (neighbour >>> 6)] & 1L << neighbour) != 0) {
+                    continue;
+                }
+                reached[(int) (neighbour >>> 6)] |= 1L << neighbour;
+                // occluding blocks are visible from the voxel they were reached from, but the fill stops at them
+                if (!contains(nx - 1, ny - 1, nz - 1) || !occludes[cell(index(nx - 1, ny - 1, nz - 1)) & ID_MASK]) {
+                    queue.enqueue(neighbour);
+                }
+            }
+        }
+
+        int removed = 0;
+        if (dense != null) {
+            for (int index = 0; index < dense.length; index++) {
+                if (dense[index] == EMPTY) {
+                    continue;
+                }
+                if (isReached(reached, index)) {
+                    dense[index] |= cavityMask(reached, index) << OCCLUSION_SHIFT;
+                } else {
+                    dense[index] = EMPTY;
+                    removed++;
+                }
+            }
+        } else if (sparse != null) {
+            var iterator = sparse.long2IntEntrySet().fastIterator();
+            while (iterator.hasNext()) {
+                var entry = iterator.next();
+                if (isReached(reached, entry.getLongKey())) {
+                    entry.setValue(entry.getIntValue() | cavityMask(reached, entry.getLongKey()) << OCCLUSION_SHIFT);
+                } else {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Only occluding blocks border voxels the fill did not reach, the fill continues through every other block.
+     *
+     * @return the faces of the voxel that point at a voxel the fill did not reach, in the format of the occlusion mask
+     */
+    private int cavityMask(long[] reached, long index) {
+        int x = (int) (index % sizeX);
+        int y = (int) (index / sizeX % sizeY);
+        int z = (int) (index / sizeX / sizeY);
+        int mask = 0;
+        for (var direction : DIRECTIONS) {
+            int nx = x + direction.getStepX();
+            int ny = y + direction.getStepY();
+            int nz = z + direction.getStepZ();
+            if (contains(nx, ny, nz) && !isReached(reached, nx, ny, nz)) {
+                mask |= 1 << direction.get3DDataValue();
+            }
+        }
+        return mask;
+    }
+
+    private boolean isReached(long[] reached, long index) {
+        return isReached(reached, (int) (index % sizeX), (int) (index / sizeX % sizeY), (int) (index / sizeX / sizeY));
+    }
+
+    private boolean isReached(long[] reached, int x, int y, int z) {
+        long padded = (x + 1) + (sizeX + 2L) * ((y + 1) + (sizeY + 2L) * (z + 1));
+        return (reached[(int) (padded >>> 6)] & 1L << padded) != 0;
+    }
+
+    /**
+     * @return whether the state renders anything, the same check placing elements uses
+     */
+    private static boolean isVisible(BlockState state) {
+        return !state.isAir() && state.getRenderShape() != RenderShape.INVISIBLE;
+    }
+
+    @FunctionalInterface
+    interface Visitor {
+        void visit(int x, int y, int z, BlockState state, int occlusionMask);
+    }
+
+    static final class Builder {
+        private final int sizeX;
+        private final int sizeY;
+        private final int sizeZ;
+        private final List<BlockState> palette = new ArrayList<>();
+        private final Reference2IntOpenHashMap<BlockState> paletteIds = new Reference2IntOpenHashMap<>();
+        @Nullable
+        private final int[] dense;
+        @Nullable
+        private final Long2IntOpenHashMap sparse;
+
+        Builder(int sizeX, int sizeY, int sizeZ, int expectedBlocks) {
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+            this.sizeZ = sizeZ;
+            palette.add(null);
+            paletteIds.defaultReturnValue(EMPTY);
+
+            long volume = (long) sizeX * sizeY * sizeZ;
+            if (volume <= Integer.MAX_VALUE - 8 && (volume <= ALWAYS_DENSE_VOLUME || (long) expectedBlocks * DENSE_FILL_RATIO >= volume)) {
+                dense = new int[(int) volume];
+                sparse = null;
+            } else {
+                dense = null;
+                sparse = new Long2IntOpenHashMap(expectedBlocks);
+                sparse.defaultReturnValue(EMPTY);
+            }
+        }
+
+        void set(int x, int y, int z, BlockState state) {
+            if (x < 0 || y < 0 || z < 0 || x >= sizeX || y >= sizeY || z >= sizeZ) {
+                throw new IllegalArgumentException("Block at " + x + ", " + y + ", " + z + " is outside of the " + sizeX + "x" + sizeY + "x" + sizeZ + " structure");
+            }
+            int id = paletteIds.getInt(state);
+            if (id == EMPTY) {
+                id = palette.size();
+                if (id > ID_MASK) {
+                    throw new IllegalStateException("Too many distinct block states");
+                }
+                palette.add(state);
+                paletteIds.put(state, id);
+            }
+
+            long index = x + (long) sizeX * (y + (long) sizeY * z);
+            if (dense != null) {
+                dense[(int) index] = id;
+            } else {
+                sparse.put(index, id);
+            }
+        }
+
+        VoxelGrid build() {
+            var grid = new VoxelGrid(sizeX, sizeY, sizeZ, palette.toArray(BlockState[]::new), dense, sparse);
+            if (dense != null) {
+                for (int index = 0; index < dense.length; index++) {
+                    dense[index] |= occlusionMask(grid, index, dense[index]) << OCCLUSION_SHIFT;
+                }
+            } else if (sparse != null) {
+                for (var entry : sparse.long2IntEntrySet()) {
+                    entry.setValue(entry.getIntValue() | occlusionMask(grid, entry.getLongKey(), entry.getIntValue()) << OCCLUSION_SHIFT);
+                }
+            }
+            return grid;
+        }
+
+        private int occlusionMask(VoxelGrid grid, long index, int cell) {
+            var state = grid.palette[cell & ID_MASK];
+            if (state == null || state.isAir()) {
+                return 0;
+            }
+            int x = (int) (index % sizeX);
+            int y = (int) (index / sizeX % sizeY);
+            int z = (int) (index / sizeX / sizeY);
+            int mask = 0;
+            for (var direction : DIRECTIONS) {
+                var neighbour = grid.get(x + direction.getStepX(), y + direction.getStepY(), z + direction.getStepZ());
+                if (neighbour != null && !Block.shouldRenderFace(state, neighbour, direction)) {
+                    mask |= 1 << direction.get3DDataValue();
+                }
+            }
+            return mask;
+        }
+    }
+}
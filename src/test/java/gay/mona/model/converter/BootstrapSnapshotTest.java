@@ -0,0 +1,154 @@
+package gay.mona.model.converter;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.client.renderer.block.model.BlockElementRotation;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.util.random.WeightedList;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BootstrapSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void bootstrap() {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    @Test
+    void readsBackWrittenGeometry() throws IOException {
+        var stone = variant("block/stone", element(
+                new Vector3f(0, 0, 0), new Vector3f(16, 16, 16), null,
+                face(Direction.UP, Direction.UP, 0, "block/stone"),
+                face(Direction.NORTH, null, 90, null)
+        ));
+        var torch = variant("block/torch", element(
+                new Vector3f(7, 0, 7), new Vector3f(9, 10, 9),
+                new BlockElementRotation(new Vector3f(8, 0, 8), Direction.Axis.Z, 22.5f, true),
+                face(Direction.WEST, null, 270, "block/torch")
+        ));
+        var weighted = WeightedList.<StateGeometry.Part>builder()
+                .add(new StateGeometry.Fixed(stone), 3)
+                .add(new StateGeometry.Fixed(torch), 1)
+                .build();
+        var geometries = Map.of(
+                Blocks.STONE.defaultBlockState(), new StateGeometry(List.of(new StateGeometry.Fixed(stone))),
+                Blocks.TORCH.defaultBlockState(), new StateGeometry(List.of(new StateGeometry.Fixed(torch), StateGeometry.Unsupported.INSTANCE)),
+                Blocks.GRASS_BLOCK.defaultBlockState(), new StateGeometry(List.of(new StateGeometry.Weighted(weighted)))
+        );
+
+        var file = directory.resolve("bootstrap.bin");
+        var key = key("a");
+        BootstrapSnapshot.write(file, key, geometries::get);
+        var snapshot = BootstrapSnapshot.open(file, key);
+        assertNotNull(snapshot);
+
+        for (var entry : geometries.entrySet()) {
+            assertGeometryEquals(entry.getValue(), snapshot.geometry(entry.getKey()));
+        }
+        assertTrue(snapshot.geometry(Blocks.DIRT.defaultBlockState()).parts().isEmpty());
+        // variants shared between states are stored and decoded once
+        var stoneVariant = ((StateGeometry.Fixed) snapshot.geometry(Blocks.STONE.defaultBlockState()).parts().getFirst()).variant();
+        var grassEntries = ((StateGeometry.Weighted) snapshot.geometry(Blocks.GRASS_BLOCK.defaultBlockState()).parts().getFirst()).entries().unwrap();
+        assertSame(stoneVariant, ((StateGeometry.Fixed) grassEntries.getFirst().value()).variant());
+    }
+
+    @Test
+    void ignoresSnapshotOfOtherKey() throws IOException {
+        var file = directory.resolve("bootstrap.bin");
+        BootstrapSnapshot.write(file, key("a"), state -> null);
+        assertNotNull(BootstrapSnapshot.open(file, key("a")));
+        assertNull(BootstrapSnapshot.open(file, key("b")));
+        assertNull(BootstrapSnapshot.open(directory.resolve("missing.bin"), key("a")));
+    }
+
+    private static BootstrapSnapshot.Key key(String assetIndexHash) {
+        return new BootstrapSnapshot.Key(1, ModelConverter.VERSION, 0, "test", assetIndexHash, Block.BLOCK_STATE_REGISTRY.size());
+    }
+
+    private static void assertGeometryEquals(StateGeometry expected, StateGeometry actual) {
+        assertEquals(expected.parts().size(), actual.parts().size());
+        for (int i = 0; i < expected.parts().size(); i++) {
+            assertPartEquals(expected.parts().get(i), actual.parts().get(i));
+        }
+    }
+
+    private static void assertPartEquals(StateGeometry.Part expected, StateGeometry.Part actual) {
+        switch (expected) {
+            case StateGeometry.Fixed(BakedVariant variant) ->
+                    assertVariantEquals(variant, assertInstanceOf(StateGeometry.Fixed.class, actual).variant());
+            case StateGeometry.Weighted(WeightedList<StateGeometry.Part> entries) -> {
+                var actualEntries = assertInstanceOf(StateGeometry.Weighted.class, actual).entries().unwrap();
+                assertEquals(entries.unwrap().size(), actualEntries.size());
+                for (int i = 0; i < actualEntries.size(); i++) {
+                    assertEquals(entries.unwrap().get(i).weight(), actualEntries.get(i).weight());
+                    assertPartEquals(entries.unwrap().get(i).value(), actualEntries.get(i).value());
+                }
+            }
+            case StateGeometry.Unsupported unsupported -> assertSame(unsupported, actual);
+        }
+    }
+
+    private static void assertVariantEquals(BakedVariant expected, BakedVariant actual) {
+        assertEquals(expected.modelLocation(), actual.modelLocation());
+        assertEquals(expected.elements().size(), actual.elements().size());
+        for (int i = 0; i < expected.elements().size(); i++) {
+            var expectedElement = expected.elements().get(i);
+            var actualElement = actual.elements().get(i);
+            assertEquals(expectedElement.from(), actualElement.from());
+            assertEquals(expectedElement.to(), actualElement.to());
+            assertEquals(expectedElement.rotation(), actualElement.rotation());
+            assertEquals(expectedElement.faces().size(), actualElement.faces().size());
+            for (int j = 0; j < expectedElement.faces().size(); j++) {
+                var expectedFace = expectedElement.faces().get(j);
+                var actualFace = actualElement.faces().get(j);
+                assertEquals(expectedFace.direction(), actualFace.direction());
+                assertEquals(expectedFace.cullFace(), actualFace.cullFace());
+                assertArrayEquals(expectedFace.uv(), actualFace.uv());
+                assertEquals(expectedFace.rotation(), actualFace.rotation());
+                assertEquals(expectedFace.texture(), actualFace.texture());
+            }
+        }
+    }
+
+    private static BakedVariant variant(String model, BakedVariant.Element... elements) {
+        return new BakedVariant(ResourceLocation.withDefaultNamespace(model), List.of(elements));
+    }
+
+    private static BakedVariant.Element element(Vector3f from, Vector3f to, BlockElementRotation rotation, BakedVariant.Face... faces) {
+        return new BakedVariant.Element(from, to, rotation, List.of(faces));
+    }
+
+    private static BakedVariant.Face face(Direction direction, Direction cullFace, int rotation, String texture) {
+        return new BakedVariant.Face(
+                direction,
+                cullFace,
+                new float[]{0.5f, 1, 15.5f, 16},
+                rotation,
+                texture == null ? null : ResourceLocation.withDefaultNamespace(texture)
+        );
+    }
+}
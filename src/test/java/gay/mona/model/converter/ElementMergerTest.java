@@ -0,0 +1,112 @@
+package gay.mona.model.converter;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ElementMergerTest {
+
+    private static final BakedVariant.Element TOP = fullBlock(face(Direction.UP, "block/stone"));
+    private static final BakedVariant.Element TOP_DIRT = fullBlock(face(Direction.UP, "block/dirt"));
+    private static final BakedVariant.Element TOP_AND_EAST = fullBlock(face(Direction.UP, "block/stone"), face(Direction.EAST, "block/stone"));
+
+    @Test
+    void mergesRowIntoOneElement() {
+        var merged = ElementMerger.merge(List.of(placed(0, 0, 0, TOP), placed(1, 0, 0, TOP), placed(2, 0, 0, TOP)), 3, 1, 1);
+        assertEquals(1, merged.size());
+        assertEquals(BlockPos.ZERO, merged.getFirst().pos());
+        assertEquals(new BlockPos(3, 1, 1), merged.getFirst().size());
+    }
+
+    @Test
+    void mergesLayerAlongBothAllowedAxes() {
+        var elements = new ArrayList<PlacedElement>();
+        for (int z = 0; z < 2; z++) {
+            for (int x = 0; x < 3; x++) {
+                elements.add(placed(x, 0, z, TOP));
+            }
+        }
+        var merged = ElementMerger.merge(elements, 3, 1, 2);
+        assertEquals(1, merged.size());
+        assertEquals(new BlockPos(3, 1, 2), merged.getFirst().size());
+    }
+
+    @Test
+    void doesNotGrowAlongAxisOfVisibleFace() {
+        // top faces would merge along y, but they are visible so the blocks can't be stacked into one element
+        var stacked = ElementMerger.merge(List.of(placed(0, 0, 0, TOP), placed(0, 1, 0, TOP)), 1, 2, 1);
+        assertEquals(2, stacked.size());
+
+        var row = ElementMerger.merge(List.of(placed(0, 0, 0, TOP_AND_EAST), placed(1, 0, 0, TOP_AND_EAST)), 2, 1, 1);
+        assertEquals(2, row.size());
+        assertEquals(PlacedElement.SINGLE_BLOCK, row.get(0).size());
+        assertEquals(PlacedElement.SINGLE_BLOCK, row.get(1).size());
+    }
+
+    @Test
+    void keepsDifferentFacesApart() {
+        var merged = ElementMerger.merge(List.of(placed(0, 0, 0, TOP), placed(1, 0, 0, TOP_DIRT), placed(2, 0, 0, TOP)), 3, 1, 1);
+        assertEquals(3, merged.size());
+    }
+
+    @Test
+    void keepsConflictingBlocksUnmerged() {
+        var first = placed(1, 0, 0, TOP);
+        var second = placed(1, 0, 0, TOP);
+        var merged = ElementMerger.merge(List.of(placed(0, 0, 0, TOP), first, second, placed(2, 0, 0, TOP)), 3, 1, 1);
+        assertEquals(4, merged.size());
+        assertSame(first, merged.get(1));
+        assertSame(second, merged.get(2));
+        for (var element : merged) {
+            assertEquals(PlacedElement.SINGLE_BLOCK, element.size());
+        }
+    }
+
+    @Test
+    void passesPartialBlocksThrough() {
+        var slab = new BakedVariant.Element(new Vector3f(0, 0, 0), new Vector3f(16, 8, 16), null, List.of(face(Direction.UP, "block/stone")));
+        var partial = placed(1, 0, 0, slab);
+        var merged = ElementMerger.merge(List.of(placed(0, 0, 0, TOP), partial, placed(2, 0, 0, TOP)), 3, 1, 1);
+        assertEquals(3, merged.size());
+        assertSame(partial, merged.get(1));
+    }
+
+    @Test
+    void stopsAtRegionSize() {
+        // the voxel after the last one of a row is the first one of the next row, growing past the edge would wrap
+        var merged = ElementMerger.merge(List.of(placed(1, 0, 0, TOP), placed(0, 0, 1, TOP)), 2, 1, 3);
+        assertEquals(2, merged.size());
+        assertEquals(PlacedElement.SINGLE_BLOCK, merged.get(0).size());
+        assertEquals(PlacedElement.SINGLE_BLOCK, merged.get(1).size());
+    }
+
+    @Test
+    void handlesHugeSparseRegions() {
+        int size = 1 << 20;
+        var merged = ElementMerger.merge(List.of(placed(0, 0, 0, TOP), placed(1, 0, 0, TOP), placed(size - 1, size - 1, size - 1, TOP)), size, size, size);
+        assertEquals(2, merged.size());
+        assertEquals(new BlockPos(2, 1, 1), merged.getFirst().size());
+        assertEquals(new BlockPos(size - 1, size - 1, size - 1), merged.get(1).pos());
+    }
+
+    private static PlacedElement placed(int x, int y, int z, BakedVariant.Element element) {
+        var variant = new BakedVariant(ResourceLocation.withDefaultNamespace("block/test"), List.of(element));
+        return new PlacedElement(new BlockPos(x, y, z), PlacedElement.SINGLE_BLOCK, variant, element, (1 << element.faces().size()) - 1);
+    }
+
+    private static BakedVariant.Element fullBlock(BakedVariant.Face... faces) {
+        return new BakedVariant.Element(new Vector3f(0, 0, 0), new Vector3f(16, 16, 16), null, List.of(faces));
+    }
+
+    private static BakedVariant.Face face(Direction direction, String texture) {
+        return new BakedVariant.Face(direction, null, new float[]{0, 0, 16, 16}, 0, ResourceLocation.withDefaultNamespace(texture));
+    }
+}
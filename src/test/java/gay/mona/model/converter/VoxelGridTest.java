@@ -0,0 +1,210 @@
+package gay.mona.model.converter;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VoxelGridTest {
+
+    // big enough that a grid with few blocks is stored sparse
+    private static final int SIZE = 64;
+
+    private static BlockState stone;
+    private static BlockState glass;
+    private static BlockState dirt;
+    private static BlockState barrier;
+
+    @BeforeAll
+    static void bootstrap() {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+        stone = Blocks.STONE.defaultBlockState();
+        glass = Blocks.GLASS.defaultBlockState();
+        dirt = Blocks.DIRT.defaultBlockState();
+        barrier = Blocks.BARRIER.defaultBlockState();
+    }
+
+    @Test
+    void denseAndSparseAgree() {
+        var blocks = new LinkedHashMap<BlockPos, BlockState>();
+        // added out of order, visits still go x first, then y, then z
+        blocks.put(new BlockPos(5, 9, 30), dirt);
+        blocks.put(new BlockPos(1, 0, 0), stone);
+        blocks.put(new BlockPos(0, 0, 0), stone);
+        blocks.put(new BlockPos(0, 1, 0), glass);
+        blocks.put(new BlockPos(1, 1, 0), glass);
+        blocks.put(new BlockPos(0, 0, 1), glass);
+        blocks.put(new BlockPos(SIZE - 1, 0, 0), stone);
+
+        var dense = visits(grid(SIZE, SIZE, SIZE, blocks, true));
+        var sparse = visits(grid(SIZE, SIZE, SIZE, blocks, false));
+        assertEquals(dense, sparse);
+        assertEquals(List.of(
+                // glass is hidden by stone and other glass, stone is not hidden by glass
+                new Visit(0, 0, 0, stone, mask(Direction.EAST)),
+                new Visit(1, 0, 0, stone, mask(Direction.WEST)),
+                new Visit(SIZE - 1, 0, 0, stone, 0),
+                new Visit(0, 1, 0, glass, mask(Direction.DOWN, Direction.EAST)),
+                new Visit(1, 1, 0, glass, mask(Direction.DOWN, Direction.WEST)),
+                new Visit(0, 0, 1, glass, mask(Direction.NORTH)),
+                new Visit(5, 9, 30, dirt, 0)
+        ), dense);
+    }
+
+    @Test
+    void handlesGridBounds() {
+        var blocks = Map.of(
+                new BlockPos(0, 0, 0), stone,
+                new BlockPos(69, 39, 29), stone
+        );
+        for (boolean dense : new boolean[]{true, false}) {
+            var grid = grid(70, 40, 30, blocks, dense);
+            assertEquals(new BoundingBox(0, 0, 0, 69, 39, 29), grid.bounds());
+            assertTrue(grid.contains(69, 39, 29));
+            assertFalse(grid.contains(70, 0, 0));
+            assertFalse(grid.contains(0, -1, 0));
+            assertFalse(grid.contains(0, 0, 30));
+            assertNull(grid.get(-1, 0, 0));
+            assertNull(grid.get(0, 40, 0));
+            assertEquals(0, grid.occlusion(0, 0, -1));
+            assertEquals(0, grid.occlusion(70, 39, 29));
+            assertSame(stone, grid.get(69, 39, 29));
+            // nothing outside the grid hides a face
+            assertEquals(0, grid.occlusion(0, 0, 0));
+            assertEquals(0, grid.occlusion(69, 39, 29));
+
+            var region = new ArrayList<Visit>();
+            grid.forEach(new BoundingBox(1, -5, 1, 100, 100, 100), (x, y, z, state, occlusionMask) -> region.add(new Visit(x, y, z, state, occlusionMask)));
+            assertEquals(List.of(new Visit(69, 39, 29, stone, 0)), region);
+            assertTrue(grid.hasBlocks(new BoundingBox(69, 39, 29, 100, 100, 100)));
+            assertFalse(grid.hasBlocks(new BoundingBox(1, 0, 0, 100, 0, 2)));
+        }
+        var builder = new VoxelGrid.Builder(3, 2, 4, 1);
+        assertThrows(IllegalArgumentException.class, () -> builder.set(3, 0, 0, stone));
+        assertThrows(IllegalArgumentException.class, () -> builder.set(0, 0, -1, stone));
+    }
+
+    @Test
+    void removesSealedRoom() {
+        for (boolean dense : new boolean[]{true, false}) {
+            var grid = grid(SIZE, SIZE, SIZE, room(stone), dense);
+            assertEquals(1, grid.removeEnclosed());
+            assertNull(grid.get(2, 2, 2));
+            // the walls stay, their faces pointing into the now empty room are culled
+            assertSame(stone, grid.get(2, 0, 2));
+            assertTrue((grid.occlusion(2, 0, 2) & mask(Direction.UP)) != 0);
+            assertTrue((grid.occlusion(2, 2, 4) & mask(Direction.NORTH)) != 0);
+            assertEquals(0, grid.occlusion(2, 0, 2) & mask(Direction.DOWN));
+            // a corner only touches other walls and the outside
+            assertEquals(mask(Direction.UP, Direction.EAST, Direction.SOUTH), grid.occlusion(0, 0, 0));
+        }
+    }
+
+    @Test
+    void keepsGlassRoom() {
+        for (boolean dense : new boolean[]{true, false}) {
+            var grid = grid(SIZE, SIZE, SIZE, room(glass), dense);
+            assertEquals(0, grid.removeEnclosed());
+            assertSame(dirt, grid.get(2, 2, 2));
+            assertEquals(0, grid.occlusion(2, 0, 2) & mask(Direction.UP));
+        }
+    }
+
+    @Test
+    void downsamplesToDominantState() {
+        var blocks = new LinkedHashMap<BlockPos, BlockState>();
+        // 5 dirt and 3 stone
+        for (int i = 0; i < 8; i++) {
+            blocks.put(new BlockPos(i & 1, i >> 1 & 1, i >> 2), i < 3 ? stone : dirt);
+        }
+        // barriers outnumber the glass but are invisible
+        blocks.put(new BlockPos(2, 0, 0), barrier);
+        blocks.put(new BlockPos(3, 0, 0), barrier);
+        blocks.put(new BlockPos(2, 1, 0), barrier);
+        blocks.put(new BlockPos(3, 1, 1), glass);
+        // only invisible blocks
+        blocks.put(new BlockPos(0, 2, 0), barrier);
+        // a tie goes to the state found first
+        blocks.put(new BlockPos(1, 2, 2), stone);
+        blocks.put(new BlockPos(0, 3, 2), glass);
+        // the last voxel of an odd size
+        blocks.put(new BlockPos(4, 4, 4), stone);
+
+        var grid = grid(5, 5, 5, blocks, true).downsample();
+        assertEquals(new BoundingBox(0, 0, 0, 2, 2, 2), grid.bounds());
+        assertSame(dirt, grid.get(0, 0, 0));
+        assertSame(glass, grid.get(1, 0, 0));
+        assertNull(grid.get(0, 1, 0));
+        assertSame(stone, grid.get(0, 1, 1));
+        assertSame(stone, grid.get(2, 2, 2));
+        var visits = visits(grid);
+        assertEquals(4, visits.size());
+        // occlusion is computed for the new grid, the glass is hidden by the dirt next to it but not the other way around
+        assertEquals(mask(Direction.WEST), grid.occlusion(1, 0, 0));
+        assertEquals(0, grid.occlusion(0, 0, 0));
+    }
+
+    /**
+     * A hollow 5x5x5 cube of {@code wall} with dirt in the middle.
+     */
+    private static Map<BlockPos, BlockState> room(BlockState wall) {
+        var blocks = new LinkedHashMap<BlockPos, BlockState>();
+        for (int z = 0; z < 5; z++) {
+            for (int y = 0; y < 5; y++) {
+                for (int x = 0; x < 5; x++) {
+                    if (x == 0 || y == 0 || z == 0 || x == 4 || y == 4 || z == 4) {
+                        blocks.put(new BlockPos(x, y, z), wall);
+                    }
+                }
+            }
+        }
+        blocks.put(new BlockPos(2, 2, 2), dirt);
+        return blocks;
+    }
+
+    /**
+     * @param dense whether to store the grid densely, expecting every voxel to be set picks dense storage and
+     *              expecting a single block picks sparse storage for grids of more than 65536 voxels
+     */
+    private static VoxelGrid grid(int sizeX, int sizeY, int sizeZ, Map<BlockPos, BlockState> blocks, boolean dense) {
+        var builder = new VoxelGrid.Builder(sizeX, sizeY, sizeZ, dense ? sizeX * sizeY * sizeZ : 1);
+        for (var entry : blocks.entrySet()) {
+            builder.set(entry.getKey().getX(), entry.getKey().getY(), entry.getKey().getZ(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    private static List<Visit> visits(VoxelGrid grid) {
+        var visits = new ArrayList<Visit>();
+        grid.forEach((x, y, z, state, occlusionMask) -> visits.add(new Visit(x, y, z, state, occlusionMask)));
+        return visits;
+    }
+
+    private static int mask(Direction... directions) {
+        int mask = 0;
+        for (var direction : directions) {
+            mask |= 1 << direction.get3DDataValue();
+        }
+        return mask;
+    }
+
+    private record Visit(int x, int y, int z, BlockState state, int occlusionMask) {}
+}